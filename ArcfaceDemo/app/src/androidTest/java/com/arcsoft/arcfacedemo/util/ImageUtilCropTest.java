@@ -0,0 +1,40 @@
+package com.arcsoft.arcfacedemo.util;
+
+import android.graphics.Rect;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class ImageUtilCropTest {
+
+    @Test
+    public void cropCopiesYAndVuRows() {
+        int width = 8;
+        int height = 4;
+        byte[] src = new byte[width * height * 3 / 2];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte) i;
+        }
+        Rect roi = new Rect(2, 2, 6, 4);
+        byte[] dst = new byte[roi.width() * roi.height() * 3 / 2];
+
+        ImageUtil.cropNv21(src, width, height, roi, dst);
+
+        int index = 0;
+        for (int y = roi.top; y < roi.bottom; y++) {
+            for (int x = roi.left; x < roi.right; x++) {
+                assertEquals(src[y * width + x], dst[index++]);
+            }
+        }
+        for (int row = roi.top / 2; row < roi.bottom / 2; row++) {
+            for (int x = roi.left; x < roi.right; x++) {
+                assertEquals(src[width * height + row * width + x], dst[index++]);
+            }
+        }
+        assertEquals(dst.length, index);
+    }
+}
@@ -0,0 +1,69 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.arcsoft.face.FaceEngine;
+import com.arcsoft.face.FaceInfo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class BestShotSelectorTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void cropRectIsCenteredAndAligned() {
+        Rect roi = BestShotSelector.getCropRect(new Rect(301, 201, 401, 301), WIDTH, HEIGHT);
+
+        //扩展后为200，向上取整为224，左上角对齐为偶数
+        assertEquals(new Rect(238, 138, 462, 362), roi);
+    }
+
+    @Test
+    public void cropRectIsShiftedInsideImage() {
+        Rect roi = BestShotSelector.getCropRect(new Rect(-20, 400, 80, 500), WIDTH, HEIGHT);
+
+        assertEquals(new Rect(0, 256, 224, 480), roi);
+    }
+
+    @Test
+    public void offerCopiesOnlyFaceRegion() {
+        BestShotSelector selector = new BestShotSelector.Builder()
+                .window(1)
+                .build();
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            nv21[i] = (byte) (i % WIDTH);
+        }
+        Rect rect = new Rect(300, 200, 400, 300);
+        FaceInfo faceInfo = new FaceInfo(rect, FaceEngine.ASF_OC_0);
+        FaceTracker faceTracker = new FaceTracker(1, 0);
+        faceTracker.update(Collections.singletonList(faceInfo));
+        int trackId = faceTracker.getTrackId(0);
+
+        selector.open(trackId);
+        selector.offer(trackId, nv21, WIDTH, HEIGHT, faceInfo, null);
+        SystemClock.sleep(10);
+        List<BestShotSelector.Candidate> readyList = selector.pollReady(faceTracker);
+
+        assertEquals(1, readyList.size());
+        BestShotSelector.Candidate candidate = readyList.get(0);
+        Rect roi = BestShotSelector.getCropRect(rect, WIDTH, HEIGHT);
+        assertEquals(roi.width(), candidate.getWidth());
+        assertEquals(roi.height(), candidate.getHeight());
+        assertEquals(roi.width() * roi.height() * 3 / 2, candidate.getNv21().length);
+        //人脸框转换到裁剪区域的坐标系中
+        Rect cropFaceRect = candidate.getFaceInfo().getRect();
+        assertEquals(new Rect(rect.left - roi.left, rect.top - roi.top, rect.right - roi.left, rect.bottom - roi.top), cropFaceRect);
+        assertEquals((byte) rect.left, candidate.getNv21()[cropFaceRect.top * candidate.getWidth() + cropFaceRect.left]);
+    }
+}
@@ -0,0 +1,95 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.graphics.Rect;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.arcsoft.face.FaceEngine;
+import com.arcsoft.face.FaceInfo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class FaceTrackerTest {
+
+    private static List<FaceInfo> faces(Rect... rects) {
+        List<FaceInfo> faceInfoList = new ArrayList<>();
+        for (Rect rect : rects) {
+            faceInfoList.add(new FaceInfo(rect, FaceEngine.ASF_OC_0));
+        }
+        return faceInfoList;
+    }
+
+    @Test
+    public void overlappingFacesKeepTrackIds() {
+        FaceTracker faceTracker = new FaceTracker(2, 100);
+        faceTracker.update(faces(new Rect(0, 0, 100, 100), new Rect(300, 0, 400, 100)));
+        assertEquals(101, faceTracker.getTrackId(0));
+        assertEquals(102, faceTracker.getTrackId(1));
+
+        //顺序调换后仍按位置匹配
+        faceTracker.update(faces(new Rect(305, 5, 405, 105), new Rect(5, 5, 105, 105)));
+
+        assertEquals(2, faceTracker.getTrackCount());
+        assertEquals(102, faceTracker.getTrackId(0));
+        assertEquals(101, faceTracker.getTrackId(1));
+        assertEquals(102, faceTracker.getCurrentTrackId());
+    }
+
+    @Test
+    public void distantFaceGetsNewTrackId() {
+        FaceTracker faceTracker = new FaceTracker(1, 0);
+        faceTracker.update(faces(new Rect(0, 0, 100, 100)));
+        faceTracker.update(faces(new Rect(500, 500, 600, 600)));
+
+        assertEquals(2, faceTracker.getTrackId(0));
+        assertFalse(faceTracker.containsTrackId(1));
+        assertTrue(faceTracker.containsTrackId(2));
+        assertEquals(0, faceTracker.getConfidence(), 0);
+    }
+
+    @Test
+    public void growsBeyondCapacity() {
+        FaceTracker faceTracker = new FaceTracker(1, 0);
+        faceTracker.update(faces(new Rect(0, 0, 100, 100)));
+        faceTracker.update(faces(new Rect(0, 0, 100, 100), new Rect(200, 0, 300, 100), new Rect(400, 0, 500, 100)));
+
+        assertEquals(3, faceTracker.getTrackCount());
+        assertEquals(1, faceTracker.getTrackId(0));
+        assertEquals(2, faceTracker.getTrackId(1));
+        assertEquals(3, faceTracker.getTrackId(2));
+    }
+
+    @Test
+    public void predictMovesRectByVelocity() {
+        FaceTracker faceTracker = new FaceTracker(1, 0);
+        faceTracker.update(faces(new Rect(0, 0, 100, 100)));
+        faceTracker.update(faces(new Rect(10, 0, 110, 100)));
+        faceTracker.update(faces(new Rect(20, 0, 120, 100)));
+
+        faceTracker.predict();
+        Rect rect = new Rect();
+        faceTracker.getTrackRect(0, rect);
+
+        //速度经过平滑，介于0和每帧10像素之间
+        assertTrue(rect.left > 20 && rect.left < 30);
+        assertEquals(100, rect.width());
+        assertEquals(1, faceTracker.getFramesSinceDetect());
+    }
+
+    @Test
+    public void confidenceIsIouOfPrediction() {
+        FaceTracker faceTracker = new FaceTracker(1, 0);
+        faceTracker.update(faces(new Rect(0, 0, 100, 100)));
+        faceTracker.update(faces(new Rect(0, 0, 100, 100)));
+        assertEquals(1, faceTracker.getConfidence(), 1e-4);
+
+        faceTracker.update(faces(new Rect(50, 0, 150, 100)));
+        assertEquals(50f * 100 / (2 * 100 * 100 - 50 * 100), faceTracker.getConfidence(), 1e-4);
+    }
+}
@@ -0,0 +1,128 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class FeatureRetryPolicyTest {
+
+    @Test
+    public void failureBacksOffUntilDelayPassed() {
+        FeatureRetryPolicy policy = new FeatureRetryPolicy.Builder()
+                .baseDelay(50)
+                .maxDelay(100)
+                .build();
+
+        assertTrue(policy.canRetry(1));
+        assertFalse(policy.onFailure(1));
+        assertFalse(policy.canRetry(1));
+        assertTrue(policy.canRetry(2));
+
+        SystemClock.sleep(80);
+        assertTrue(policy.canRetry(1));
+        assertEquals(1, policy.getFailureCount());
+        assertEquals(1, policy.getBackoffSkipCount());
+    }
+
+    @Test
+    public void delayDoublesUpToMaxDelay() {
+        FeatureRetryPolicy policy = new FeatureRetryPolicy.Builder()
+                .baseDelay(50)
+                .maxDelay(100)
+                .build();
+        policy.onFailure(1);
+        policy.onFailure(1);
+        //第二次失败等待100毫秒
+        SystemClock.sleep(70);
+        assertFalse(policy.canRetry(1));
+        SystemClock.sleep(50);
+        assertTrue(policy.canRetry(1));
+
+        //之后不再超过maxDelay
+        policy.onFailure(1);
+        SystemClock.sleep(120);
+        assertTrue(policy.canRetry(1));
+    }
+
+    @Test
+    public void missesReachUnknownAtMaxAttempts() {
+        FeatureRetryPolicy policy = new FeatureRetryPolicy.Builder()
+                .baseDelay(1)
+                .maxAttempts(2)
+                .build();
+
+        assertFalse(policy.onSearchMissed(1));
+        assertTrue(policy.onSearchMissed(1));
+        SystemClock.sleep(10);
+        assertFalse(policy.canRetry(1));
+        assertEquals(1, policy.getUnknownCount());
+    }
+
+    @Test
+    public void failuresReachUnknownAtMaxFailures() {
+        FeatureRetryPolicy policy = new FeatureRetryPolicy.Builder()
+                .baseDelay(1)
+                .maxFailures(3)
+                .build();
+
+        assertFalse(policy.onFailure(1));
+        assertFalse(policy.onFailure(1));
+        assertTrue(policy.onFailure(1));
+        SystemClock.sleep(10);
+        assertFalse(policy.canRetry(1));
+    }
+
+    @Test
+    public void removeForgetsTrack() {
+        FeatureRetryPolicy policy = new FeatureRetryPolicy.Builder()
+                .maxAttempts(1)
+                .build();
+        assertTrue(policy.onSearchMissed(1));
+
+        policy.remove(1);
+
+        assertTrue(policy.canRetry(1));
+    }
+
+    @Test
+    public void busyAndTimeoutNeverReachUnknown() {
+        FeatureRetryPolicy policy = new FeatureRetryPolicy.Builder()
+                .baseDelay(1)
+                .maxDelay(1)
+                .maxFailures(2)
+                .build();
+
+        for (int i = 0; i < 5; i++) {
+            policy.onBusy(1);
+            policy.onTimeout(1);
+        }
+        SystemClock.sleep(10);
+        assertTrue(policy.canRetry(1));
+        //不计入出错次数
+        assertFalse(policy.onFailure(1));
+        assertEquals(5, policy.getBusyCount());
+        assertEquals(5, policy.getTimeoutCount());
+        assertEquals(1, policy.getFailureCount());
+        assertEquals(0, policy.getUnknownCount());
+    }
+
+    @Test
+    public void busyDoesNotIncreaseDelay() {
+        FeatureRetryPolicy policy = new FeatureRetryPolicy.Builder()
+                .baseDelay(50)
+                .maxDelay(1000)
+                .build();
+        for (int i = 0; i < 5; i++) {
+            policy.onBusy(1);
+        }
+        assertFalse(policy.canRetry(1));
+
+        SystemClock.sleep(80);
+        assertTrue(policy.canRetry(1));
+    }
+}
@@ -0,0 +1,84 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.graphics.Rect;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.arcsoft.face.FaceEngine;
+import com.arcsoft.face.FaceInfo;
+import com.arcsoft.face.LivenessInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LivenessCacheTest {
+    private static final long TTL = 1000;
+
+    private LivenessCache livenessCache;
+    private LivenessInfo livenessInfo;
+
+    @Before
+    public void setUp() {
+        livenessCache = new LivenessCache(TTL);
+        livenessInfo = new LivenessInfo();
+        //新建的活体结果为确定的结果时才会被缓存
+        assumeTrue(livenessInfo.getLiveness() == LivenessInfo.ALIVE || livenessInfo.getLiveness() == LivenessInfo.NOT_ALIVE);
+    }
+
+    @Test
+    public void resultExpiresAfterTtl() {
+        livenessCache.put(1, livenessInfo, 0);
+
+        assertSame(livenessInfo, livenessCache.get(1, TTL - 1));
+        assertNull(livenessCache.get(1, TTL));
+        //过期后已被删除
+        assertNull(livenessCache.get(1, 0));
+    }
+
+    @Test
+    public void putRefreshesExpireTime() {
+        livenessCache.put(1, livenessInfo, 0);
+        livenessCache.put(1, livenessInfo, TTL / 2);
+
+        assertSame(livenessInfo, livenessCache.get(1, TTL));
+    }
+
+    @Test
+    public void nullResultIsNotCached() {
+        livenessCache.put(1, null, 0);
+
+        assertNull(livenessCache.get(1, 0));
+    }
+
+    @Test
+    public void growsAndClears() {
+        for (int i = 0; i < 20; i++) {
+            livenessCache.put(i, livenessInfo, 0);
+        }
+        for (int i = 0; i < 20; i++) {
+            assertSame(livenessInfo, livenessCache.get(i, 0));
+        }
+
+        livenessCache.clear();
+        assertNull(livenessCache.get(0, 0));
+    }
+
+    @Test
+    public void retainTracksRemovesLeftFaces() {
+        FaceTracker faceTracker = new FaceTracker(1, 0);
+        faceTracker.update(Collections.singletonList(new FaceInfo(new Rect(0, 0, 100, 100), FaceEngine.ASF_OC_0)));
+        livenessCache.put(faceTracker.getTrackId(0), livenessInfo, 0);
+        livenessCache.put(faceTracker.getTrackId(0) + 1, livenessInfo, 0);
+
+        livenessCache.retainTracks(faceTracker);
+
+        assertSame(livenessInfo, livenessCache.get(faceTracker.getTrackId(0), 0));
+        assertNull(livenessCache.get(faceTracker.getTrackId(0) + 1, 0));
+    }
+}
@@ -16,6 +16,7 @@ import android.widget.Toast;
 import com.arcsoft.arcfacedemo.R;
 import com.arcsoft.arcfacedemo.common.Constants;
 import com.arcsoft.arcfacedemo.util.ConfigUtil;
+import com.arcsoft.arcfacedemo.util.face.FaceEngineManager;
 import com.arcsoft.face.ErrorInfo;
 import com.arcsoft.face.FaceEngine;
 
@@ -44,6 +45,13 @@ public class ChooseFunctionActivity extends AppCompatActivity {
 
     }
 
+    @Override
+    protected void onDestroy() {
+        //首页退出时销毁各页面归还的空闲引擎
+        FaceEngineManager.getInstance().releaseIdle();
+        super.onDestroy();
+    }
+
     private void initView() {
         //设置视频模式下的人脸优先检测方向
         RadioGroup radioGroupFtOrient = findViewById(R.id.radio_group_ft_orient);
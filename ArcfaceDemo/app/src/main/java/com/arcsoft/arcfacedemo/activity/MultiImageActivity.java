@@ -36,6 +36,8 @@ import com.arcsoft.face.GenderInfo;
 import com.arcsoft.arcfacedemo.R;
 import com.arcsoft.arcfacedemo.model.ItemShowInfo;
 import com.arcsoft.arcfacedemo.util.ImageUtil;
+import com.arcsoft.arcfacedemo.util.face.FaceEngineLease;
+import com.arcsoft.arcfacedemo.util.face.FaceEngineManager;
 import com.arcsoft.arcfacedemo.widget.ShowInfoAdapter;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -67,6 +69,7 @@ public class MultiImageActivity extends AppCompatActivity {
     private List<ItemShowInfo> showInfoList;
 
     private FaceEngine faceEngine;
+    private FaceEngineLease faceEngineLease;
     private int faceEngineCode = -1;
 
     private Bitmap mainBitmap;
@@ -113,9 +116,10 @@ public class MultiImageActivity extends AppCompatActivity {
 
     private void initEngine() {
 
-        faceEngine = new FaceEngine();
-        faceEngineCode = faceEngine.init(this, FaceEngine.ASF_DETECT_MODE_IMAGE, FaceEngine.ASF_OP_0_HIGHER_EXT,
-                16, 6, FaceEngine.ASF_FACE_RECOGNITION | FaceEngine.ASF_AGE | FaceEngine.ASF_FACE_DETECT | FaceEngine.ASF_GENDER | FaceEngine.ASF_FACE3DANGLE);
+        faceEngineLease = FaceEngineManager.getInstance().acquire(this, new FaceEngineManager.EngineConfig(FaceEngine.ASF_DETECT_MODE_IMAGE, FaceEngine.ASF_OP_0_HIGHER_EXT,
+                16, 6, FaceEngine.ASF_FACE_RECOGNITION | FaceEngine.ASF_AGE | FaceEngine.ASF_FACE_DETECT | FaceEngine.ASF_GENDER | FaceEngine.ASF_FACE3DANGLE));
+        faceEngine = faceEngineLease.getFaceEngine();
+        faceEngineCode = faceEngineLease.getInitCode();
 
         Log.i(TAG, "initEngine: init " + faceEngineCode);
 
@@ -125,9 +129,12 @@ public class MultiImageActivity extends AppCompatActivity {
     }
 
     private void unInitEngine() {
-        if (faceEngine != null) {
-            faceEngineCode = faceEngine.unInit();
-            Log.i(TAG, "unInitEngine: " + faceEngineCode);
+        if (faceEngineLease != null) {
+            faceEngineLease.release();
+            faceEngineLease = null;
+            faceEngine = null;
+            faceEngineCode = -1;
+            Log.i(TAG, "unInitEngine: engine returned to pool");
         }
     }
 
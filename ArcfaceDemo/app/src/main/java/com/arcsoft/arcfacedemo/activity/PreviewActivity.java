@@ -20,6 +20,8 @@ import android.view.WindowManager;
 import android.widget.Toast;
 
 import com.arcsoft.arcfacedemo.util.ConfigUtil;
+import com.arcsoft.arcfacedemo.util.face.FaceEngineLease;
+import com.arcsoft.arcfacedemo.util.face.FaceEngineManager;
 import com.arcsoft.face.AgeInfo;
 import com.arcsoft.face.ErrorInfo;
 import com.arcsoft.face.Face3DAngle;
@@ -45,6 +47,7 @@ public class PreviewActivity extends AppCompatActivity implements ViewTreeObserv
     private Camera.Size previewSize;
     private Integer cameraID = Camera.CameraInfo.CAMERA_FACING_FRONT;
     private FaceEngine faceEngine;
+    private FaceEngineLease faceEngineLease;
     private int afCode = -1;
     private int processMask = FaceEngine.ASF_AGE | FaceEngine.ASF_FACE3DANGLE | FaceEngine.ASF_GENDER | FaceEngine.ASF_LIVENESS;
     /**
@@ -54,6 +57,10 @@ public class PreviewActivity extends AppCompatActivity implements ViewTreeObserv
     private FaceRectView faceRectView;
 
     private static final int ACTION_REQUEST_PERMISSIONS = 0x001;
+    /**
+     * 预览缓存数量，预览帧只在回调中同步使用，少量缓存即可
+     */
+    private static final int PREVIEW_BUFFER_NUM = 3;
     /**
      * 所需的所有权限信息
      */
@@ -95,22 +102,27 @@ public class PreviewActivity extends AppCompatActivity implements ViewTreeObserv
     }
 
     private void initEngine() {
-        faceEngine = new FaceEngine();
-        afCode = faceEngine.init(this.getApplicationContext(), FaceEngine.ASF_DETECT_MODE_VIDEO, ConfigUtil.getFtOrient(this),
-                16, 20, FaceEngine.ASF_FACE_DETECT | FaceEngine.ASF_AGE | FaceEngine.ASF_FACE3DANGLE | FaceEngine.ASF_GENDER | FaceEngine.ASF_LIVENESS);
-        VersionInfo versionInfo = new VersionInfo();
-        faceEngine.getVersion(versionInfo);
-        Log.i(TAG, "initEngine:  init: " + afCode + "  version:" + versionInfo);
+        faceEngineLease = FaceEngineManager.getInstance().acquire(this, new FaceEngineManager.EngineConfig(FaceEngine.ASF_DETECT_MODE_VIDEO,
+                ConfigUtil.getFtOrient(this), 16, 20, FaceEngine.ASF_FACE_DETECT | FaceEngine.ASF_AGE | FaceEngine.ASF_FACE3DANGLE | FaceEngine.ASF_GENDER | FaceEngine.ASF_LIVENESS));
+        faceEngine = faceEngineLease.getFaceEngine();
+        afCode = faceEngineLease.getInitCode();
         if (afCode != ErrorInfo.MOK) {
             Toast.makeText(this, getString(R.string.init_failed, afCode), Toast.LENGTH_SHORT).show();
+            return;
         }
+        VersionInfo versionInfo = new VersionInfo();
+        faceEngine.getVersion(versionInfo);
+        Log.i(TAG, "initEngine:  init: " + afCode + "  version:" + versionInfo);
     }
 
     private void unInitEngine() {
 
-        if (afCode == 0) {
-            afCode = faceEngine.unInit();
-            Log.i(TAG, "unInitEngine: " + afCode);
+        if (faceEngineLease != null) {
+            faceEngineLease.release();
+            faceEngineLease = null;
+            faceEngine = null;
+            afCode = -1;
+            Log.i(TAG, "unInitEngine: engine returned to pool");
         }
     }
 
@@ -156,6 +168,9 @@ public class PreviewActivity extends AppCompatActivity implements ViewTreeObserv
                 if (faceRectView != null) {
                     faceRectView.clearFaceInfo();
                 }
+                if (faceEngine == null) {
+                    return;
+                }
                 List<FaceInfo> faceInfoList = new ArrayList<>();
                 int code = faceEngine.detectFaces(nv21, previewSize.width, previewSize.height, FaceEngine.CP_PAF_NV21, faceInfoList);
                 if (code == ErrorInfo.MOK && faceInfoList.size() > 0) {
@@ -214,6 +229,7 @@ public class PreviewActivity extends AppCompatActivity implements ViewTreeObserv
                 .isMirror(false)
                 .previewOn(previewView)
                 .cameraListener(cameraListener)
+                .previewBufferNum(PREVIEW_BUFFER_NUM)
                 .build();
         cameraHelper.init();
     }
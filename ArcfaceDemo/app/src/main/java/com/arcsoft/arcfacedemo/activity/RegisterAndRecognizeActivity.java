@@ -29,9 +29,18 @@ import com.arcsoft.arcfacedemo.model.FacePreviewInfo;
 import com.arcsoft.arcfacedemo.widget.ShowFaceInfoAdapter;
 import com.arcsoft.arcfacedemo.faceserver.CompareResult;
 import com.arcsoft.arcfacedemo.faceserver.FaceServer;
+import com.arcsoft.arcfacedemo.faceserver.SearchDispatcher;
+import com.arcsoft.arcfacedemo.faceserver.SearchListener;
 import com.arcsoft.arcfacedemo.util.ConfigUtil;
+import com.arcsoft.arcfacedemo.util.face.FaceEngineLease;
+import com.arcsoft.arcfacedemo.util.face.FaceEngineManager;
 import com.arcsoft.arcfacedemo.util.face.FaceHelper;
+import com.arcsoft.arcfacedemo.util.face.FrameRateGovernor;
+import com.arcsoft.arcfacedemo.util.face.MotionGate;
 import com.arcsoft.arcfacedemo.util.face.FaceListener;
+import com.arcsoft.arcfacedemo.util.face.FeatureRetryPolicy;
+import com.arcsoft.arcfacedemo.util.face.LivenessWaitListener;
+import com.arcsoft.arcfacedemo.util.face.LivenessWaiter;
 import com.arcsoft.arcfacedemo.util.face.RequestFeatureStatus;
 import com.arcsoft.face.AgeInfo;
 import com.arcsoft.face.ErrorInfo;
@@ -45,32 +54,75 @@ import com.arcsoft.arcfacedemo.widget.FaceRectView;
 import com.arcsoft.arcfacedemo.model.DrawInfo;
 import com.arcsoft.arcfacedemo.util.camera.CameraHelper;
 import com.arcsoft.arcfacedemo.util.camera.CameraListener;
+import com.arcsoft.arcfacedemo.util.camera.FrameBufferPool;
 import com.arcsoft.arcfacedemo.util.DrawHelper;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.ObservableOnSubscribe;
 import io.reactivex.Observer;
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
-import io.reactivex.functions.Consumer;
 import io.reactivex.schedulers.Schedulers;
 
 public class RegisterAndRecognizeActivity extends AppCompatActivity implements ViewTreeObserver.OnGlobalLayoutListener {
     private static final String TAG = "RegisterAndRecognize";
     private static final int MAX_DETECT_NUM = 10;
     /**
-     * 当FR成功，活体未成功时，FR等待活体的时间
+     * 当FR成功，活体未成功时，FR等待活体结果的最长时间
      */
-    private static final int WAIT_LIVENESS_INTERVAL = 50;
+    private static final int WAIT_LIVENESS_TIMEOUT = 2000;
+    /**
+     * 特征请求失败后第一次重试的等待时间，之后每次失败翻倍
+     */
+    private static final int RETRY_BASE_DELAY = 200;
+    /**
+     * 搜索未命中的最大次数，达到后认定为未注册的访客
+     */
+    private static final int MAX_SEARCH_ATTEMPTS = 3;
+    /**
+     * 特征提取前的择优时间，在该时间内选出人脸最大、最正、最清晰的一帧
+     */
+    private static final int BEST_SHOT_WINDOW = 300;
+    /**
+     * 合并搜索请求的时间窗口
+     */
+    private static final int SEARCH_BATCH_WINDOW = 20;
+    /**
+     * 预览缓存数量，所有缓存被占用时会丢帧。缓存由相机正在写入的帧、等待处理的帧、正在处理的帧和注册中的帧占用；
+     * 开启择优时择优和FR使用的是拷贝，不占用缓存，关闭择优时每个排队或执行中的FR任务还会各占用一个缓存
+     */
+    private static final int PREVIEW_BUFFER_NUM = 6;
+    /**
+     * 有人脸时的最大处理帧率
+     */
+    private static final int ACTIVE_FPS = 25;
+    /**
+     * 无人脸时的处理帧率
+     */
+    private static final int IDLE_FPS = 5;
+    /**
+     * 人脸检测和活体检测占用时间的最大比例
+     */
+    private static final float DETECT_CPU_BUDGET = 0.6f;
+    /**
+     * 预览宽度不小于该值时，在缩小一半的图像上进行人脸检测
+     */
+    private static final int DOWNSCALE_DETECT_MIN_WIDTH = 1280;
+    /**
+     * 人脸检测间隔帧数，人脸运动稳定时其余帧只推算人脸框
+     */
+    private static final int DETECT_INTERVAL = 3;
     private CameraHelper cameraHelper;
+    /**
+     * 相机的预览帧缓存池，相机打开时保存，预览线程和注册线程不再通过{@link #cameraHelper}获取
+     */
+    private FrameBufferPool frameBufferPool;
     private DrawHelper drawHelper;
     private Camera.Size previewSize;
     /**
@@ -78,13 +130,14 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
      */
     private Integer cameraID = Camera.CameraInfo.CAMERA_FACING_FRONT;
     private FaceEngine faceEngine;
+    private FaceEngineLease faceEngineLease;
     private FaceHelper faceHelper;
     private List<CompareResult> compareResultList;
     private ShowFaceInfoAdapter adapter;
     /**
      * 活体检测的开关
      */
-    private boolean livenessDetect = true;
+    private volatile boolean livenessDetect = true;
 
     /**
      * 注册人脸状态码，准备注册
@@ -99,12 +152,26 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
      */
     private static final int REGISTER_STATUS_DONE = 2;
 
-    private int registerStatus = REGISTER_STATUS_DONE;
+    private volatile int registerStatus = REGISTER_STATUS_DONE;
 
     private int afCode = -1;
     private ConcurrentHashMap<Integer, Integer> requestFeatureStatusMap = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<Integer, Integer> livenessMap = new ConcurrentHashMap<>();
-    private CompositeDisposable getFeatureDelayedDisposables = new CompositeDisposable();
+    /**
+     * FR先于活体检测完成时，在此等待该trackId的活体结果。onDestroy后为null，
+     * 预览线程和FR线程可能仍在运行，使用前需拷贝到局部变量并判空
+     */
+    private volatile LivenessWaiter livenessWaiter;
+    /**
+     * 特征请求失败后的重试策略，避免未注册的人脸每帧都进行FR和搜索
+     */
+    private FeatureRetryPolicy featureRetryPolicy = new FeatureRetryPolicy.Builder()
+            .baseDelay(RETRY_BASE_DELAY)
+            .maxAttempts(MAX_SEARCH_ATTEMPTS)
+            .build();
+    /**
+     * 搜索调度器，将短时间内的多个搜索请求合并为一次人脸库遍历，与{@link #livenessWaiter}相同，使用前需判空
+     */
+    private volatile SearchDispatcher searchDispatcher;
     /**
      * 相机预览显示的控件，可为SurfaceView或TextureView
      */
@@ -150,8 +217,45 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
             default:
                 break;
         }
-        //本地人脸库初始化
-        FaceServer.getInstance().init(this);
+        //本地人脸库初始化，使用内存映射加载，并在子线程中进行，相机和人脸检测无需等待，搜索会在初始化完成后进行
+        FaceServer.getInstance().setGalleryMode(FaceServer.GALLERY_MODE_MAPPED);
+        FaceServer.getInstance().initAsync(getApplicationContext(), null);
+        searchDispatcher = new SearchDispatcher.Builder()
+                .batchWindow(SEARCH_BATCH_WINDOW)
+                .maxBatchSize(MAX_DETECT_NUM)
+                .searchListener(new SearchListener() {
+                    @Override
+                    public void onSearchResult(@Nullable final CompareResult compareResult, final Integer requestId) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                RegisterAndRecognizeActivity.this.onSearchResult(compareResult, requestId);
+                            }
+                        });
+                    }
+                })
+                .build();
+        livenessWaiter = new LivenessWaiter.Builder()
+                .timeout(WAIT_LIVENESS_TIMEOUT)
+                .livenessWaitListener(new LivenessWaitListener() {
+                    @Override
+                    public void onLivenessComplete(FaceFeature faceFeature, Integer requestId, int liveness) {
+                        //活体检测通过或该人脸不再需要活体检测，搜索特征
+                        if (liveness == LivenessInfo.ALIVE || !isLivenessRequired(requestId)) {
+                            searchFace(faceFeature, requestId);
+                        }
+                        //活体检测失败
+                        else if (liveness == LivenessInfo.NOT_ALIVE) {
+                            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.NOT_ALIVE);
+                        }
+                        //等待超时，稍后重新请求FR
+                        else {
+                            featureRetryPolicy.onTimeout(requestId);
+                            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
+                        }
+                    }
+                })
+                .build();
 
         previewView = findViewById(R.id.texture_preview);
         //在布局结束后才做初始化操作
@@ -164,6 +268,9 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
                 livenessDetect = isChecked;
+                if (faceHelper != null) {
+                    faceHelper.setLivenessEnabled(isChecked);
+                }
             }
         });
         RecyclerView recyclerShowFaceInfo = findViewById(R.id.recycler_view_person);
@@ -180,16 +287,18 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
      * 初始化引擎
      */
     private void initEngine() {
-        faceEngine = new FaceEngine();
-        afCode = faceEngine.init(this, FaceEngine.ASF_DETECT_MODE_VIDEO, ConfigUtil.getFtOrient(this),
-                16, MAX_DETECT_NUM, FaceEngine.ASF_FACE_RECOGNITION | FaceEngine.ASF_FACE_DETECT | FaceEngine.ASF_LIVENESS);
-        VersionInfo versionInfo = new VersionInfo();
-        faceEngine.getVersion(versionInfo);
-        Log.i(TAG, "initEngine:  init: " + afCode + "  version:" + versionInfo);
+        faceEngineLease = FaceEngineManager.getInstance().acquire(this, new FaceEngineManager.EngineConfig(FaceEngine.ASF_DETECT_MODE_VIDEO,
+                ConfigUtil.getFtOrient(this), 16, MAX_DETECT_NUM, FaceEngine.ASF_FACE_DETECT | FaceEngine.ASF_LIVENESS | FaceEngine.ASF_FACE3DANGLE));
+        faceEngine = faceEngineLease.getFaceEngine();
+        afCode = faceEngineLease.getInitCode();
 
         if (afCode != ErrorInfo.MOK) {
             Toast.makeText(this, getString(R.string.init_failed, afCode), Toast.LENGTH_SHORT).show();
+            return;
         }
+        VersionInfo versionInfo = new VersionInfo();
+        faceEngine.getVersion(versionInfo);
+        Log.i(TAG, "initEngine:  init: " + afCode + "  version:" + versionInfo);
     }
 
     /**
@@ -197,9 +306,11 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
      */
     private void unInitEngine() {
 
-        if (afCode == ErrorInfo.MOK) {
-            afCode = faceEngine.unInit();
-            Log.i(TAG, "unInitEngine: " + afCode);
+        if (faceEngineLease != null) {
+            faceEngineLease.release();
+            faceEngineLease = null;
+            afCode = -1;
+            Log.i(TAG, "unInitEngine: engine returned to pool");
         }
     }
 
@@ -207,26 +318,28 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
     @Override
     protected void onDestroy() {
 
+        //release会等待预览线程处理完最后一帧，之后才能销毁预览线程使用的引擎
         if (cameraHelper != null) {
             cameraHelper.release();
             cameraHelper = null;
         }
 
-        //faceHelper中可能会有FR耗时操作仍在执行，加锁防止crash
+        //faceHelper中的FR使用各自独立的引擎，由faceHelper负责销毁
         if (faceHelper != null) {
-            synchronized (faceHelper) {
-                unInitEngine();
-            }
             ConfigUtil.setTrackId(this, faceHelper.getCurrentTrackId());
             faceHelper.release();
-        } else {
-            unInitEngine();
         }
-        if (getFeatureDelayedDisposables != null) {
-            getFeatureDelayedDisposables.dispose();
-            getFeatureDelayedDisposables.clear();
+        unInitEngine();
+        if (livenessWaiter != null) {
+            livenessWaiter.release();
+            livenessWaiter = null;
+        }
+        if (searchDispatcher != null) {
+            searchDispatcher.release();
+            searchDispatcher = null;
         }
         FaceServer.getInstance().unInit();
+        featureRetryPolicy.logStatistics();
         super.onDestroy();
     }
 
@@ -258,36 +371,32 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
                 if (faceFeature != null) {
 //                    Log.i(TAG, "onPreview: fr end = " + System.currentTimeMillis() + " trackId = " + requestId);
 
-                    //不做活体检测的情况，直接搜索
-                    if (!livenessDetect) {
+                    //不需要活体检测的情况，直接搜索
+                    if (!isLivenessRequired(requestId)) {
                         searchFace(faceFeature, requestId);
                     }
-                    //活体检测通过，搜索特征
-                    else if (livenessMap.get(requestId) != null && livenessMap.get(requestId) == LivenessInfo.ALIVE) {
-                        searchFace(faceFeature, requestId);
-                    }
-                    //活体检测未出结果，延迟100ms再执行该函数
-                    else if (livenessMap.get(requestId) != null && livenessMap.get(requestId) == LivenessInfo.UNKNOWN) {
-                        getFeatureDelayedDisposables.add(Observable.timer(WAIT_LIVENESS_INTERVAL, TimeUnit.MILLISECONDS)
-                                .subscribe(new Consumer<Long>() {
-                                    @Override
-                                    public void accept(Long aLong) {
-                                        onFaceFeatureInfoGet(faceFeature, requestId);
-                                    }
-                                }));
-                    }
-                    //活体检测失败
+                    //等待该trackId的活体结果，结果到达或超时后在livenessWaiter的回调中处理
                     else {
-                        requestFeatureStatusMap.put(requestId, RequestFeatureStatus.NOT_ALIVE);
+                        LivenessWaiter waiter = livenessWaiter;
+                        if (waiter != null) {
+                            waiter.await(faceFeature, requestId);
+                        }
                     }
 
                 }
                 //FR 失败
                 else {
-                    requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
+                    onRequestFailed(requestId);
                 }
             }
 
+            //FR繁忙，请求被丢弃，稍后重新请求FR
+            @Override
+            public void onFaceFeatureRejected(Integer requestId) {
+                featureRetryPolicy.onBusy(requestId);
+                requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
+            }
+
         };
 
 
@@ -295,26 +404,46 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
             @Override
             public void onCameraOpened(Camera camera, int cameraId, int displayOrientation, boolean isMirror) {
                 previewSize = camera.getParameters().getPreviewSize();
+                frameBufferPool = cameraHelper.getFrameBufferPool();
                 drawHelper = new DrawHelper(previewSize.width, previewSize.height, previewView.getWidth(), previewView.getHeight(), displayOrientation
                         , cameraId, isMirror);
 
                 faceHelper = new FaceHelper.Builder()
+                        .context(getApplicationContext())
                         .faceEngine(faceEngine)
-                        .frThreadNum(MAX_DETECT_NUM)
+                        .frThreadNum(Math.min(MAX_DETECT_NUM, Runtime.getRuntime().availableProcessors()))
                         .previewSize(previewSize)
                         .faceListener(faceListener)
                         .currentTrackId(ConfigUtil.getTrackId(RegisterAndRecognizeActivity.this.getApplicationContext()))
+                        .frameBufferPool(frameBufferPool)
+                        .frameRateGovernor(new FrameRateGovernor.Builder()
+                                .activeFps(ACTIVE_FPS)
+                                .idleFps(IDLE_FPS)
+                                .cpuBudget(DETECT_CPU_BUDGET)
+                                .build())
+                        .motionGate(new MotionGate.Builder().build())
+                        .detectScale(previewSize.width >= DOWNSCALE_DETECT_MIN_WIDTH ? 2 : 1)
+                        .roi(cameraHelper.getRoi())
+                        .detectInterval(DETECT_INTERVAL)
+                        .livenessEnabled(livenessDetect)
+                        .bestShotWindow(BEST_SHOT_WINDOW)
+                        .multiFace(true)
+                        .livenessMode(FaceHelper.LIVENESS_MODE_EACH)
                         .build();
             }
 
 
             @Override
             public void onPreview(final byte[] nv21, Camera camera) {
+                List<FacePreviewInfo> facePreviewInfoList = faceHelper.onPreviewFrame(nv21);
+                //该帧被帧率调节器跳过，保留上一帧的结果
+                if (facePreviewInfoList == null) {
+                    return;
+                }
                 if (faceRectView != null) {
                     faceRectView.clearFaceInfo();
                 }
-                List<FacePreviewInfo> facePreviewInfoList = faceHelper.onPreviewFrame(nv21);
-                if (facePreviewInfoList != null && faceRectView != null && drawHelper != null) {
+                if (faceRectView != null && drawHelper != null) {
                     List<DrawInfo> drawInfoList = new ArrayList<>();
                     for (int i = 0; i < facePreviewInfoList.size(); i++) {
                         String name = faceHelper.getName(facePreviewInfoList.get(i).getTrackId());
@@ -323,12 +452,25 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
                     }
                     drawHelper.draw(faceRectView, drawInfoList);
                 }
-                if (registerStatus == REGISTER_STATUS_READY && facePreviewInfoList != null && facePreviewInfoList.size() > 0) {
+                if (registerStatus == REGISTER_STATUS_READY && facePreviewInfoList.size() > 0) {
                     registerStatus = REGISTER_STATUS_PROCESSING;
+                    //注册在子线程中进行，持有该帧直到注册结束
+                    final FrameBufferPool frameBufferPool = RegisterAndRecognizeActivity.this.frameBufferPool;
+                    if (frameBufferPool != null) {
+                        frameBufferPool.retain(nv21);
+                    }
+                    final String registerName = "registered " + faceHelper.getCurrentTrackId();
                     Observable.create(new ObservableOnSubscribe<Boolean>() {
                         @Override
                         public void subscribe(ObservableEmitter<Boolean> emitter) {
-                            boolean success = FaceServer.getInstance().register(RegisterAndRecognizeActivity.this, nv21.clone(), previewSize.width, previewSize.height, "registered " + faceHelper.getCurrentTrackId());
+                            boolean success;
+                            try {
+                                success = FaceServer.getInstance().register(RegisterAndRecognizeActivity.this, nv21, previewSize.width, previewSize.height, registerName);
+                            } finally {
+                                if (frameBufferPool != null) {
+                                    frameBufferPool.release(nv21);
+                                }
+                            }
                             emitter.onNext(success);
                         }
                     })
@@ -359,21 +501,31 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
                                 }
                             });
                 }
-                clearLeftFace(facePreviewInfoList);
+                //onDestroy后预览线程可能仍在处理最后一帧
+                LivenessWaiter waiter = livenessWaiter;
+                if (waiter == null) {
+                    return;
+                }
+                clearLeftFace(facePreviewInfoList, waiter);
+                waiter.checkTimeout();
 
-                if (facePreviewInfoList != null && facePreviewInfoList.size() > 0 && previewSize != null) {
+                if (facePreviewInfoList.size() > 0 && previewSize != null) {
 
                     for (int i = 0; i < facePreviewInfoList.size(); i++) {
-                        if (livenessDetect) {
-                            livenessMap.put(facePreviewInfoList.get(i).getTrackId(), facePreviewInfoList.get(i).getLivenessInfo().getLiveness());
+                        if (isLivenessRequired(facePreviewInfoList.get(i).getTrackId())) {
+                            //刚开启活体检测时可能还没有活体结果
+                            LivenessInfo livenessInfo = facePreviewInfoList.get(i).getLivenessInfo();
+                            waiter.onLivenessResult(facePreviewInfoList.get(i).getTrackId(), livenessInfo == null ? LivenessInfo.UNKNOWN : livenessInfo.getLiveness());
                         }
                         /**
-                         * 对于每个人脸，若状态为空或者为失败，则请求FR（可根据需要添加其他判断以限制FR次数），
+                         * 对于每个人脸，若状态为空，或者为失败且已过重试等待时间，则请求FR，
                          * FR回传的人脸特征结果在{@link FaceListener#onFaceFeatureInfoGet(FaceFeature, Integer)}中回传
                          */
-                        if (requestFeatureStatusMap.get(facePreviewInfoList.get(i).getTrackId()) == null
-                                || requestFeatureStatusMap.get(facePreviewInfoList.get(i).getTrackId()) == RequestFeatureStatus.FAILED) {
+                        Integer status = requestFeatureStatusMap.get(facePreviewInfoList.get(i).getTrackId());
+                        if (status == null
+                                || (status == RequestFeatureStatus.FAILED && featureRetryPolicy.canRetry(facePreviewInfoList.get(i).getTrackId()))) {
                             requestFeatureStatusMap.put(facePreviewInfoList.get(i).getTrackId(), RequestFeatureStatus.SEARCHING);
+                            featureRetryPolicy.onRequest();
                             faceHelper.requestFaceFeature(nv21, facePreviewInfoList.get(i).getFaceInfo(), previewSize.width, previewSize.height, FaceEngine.CP_PAF_NV21, facePreviewInfoList.get(i).getTrackId());
 //                            Log.i(TAG, "onPreview: fr start = " + System.currentTimeMillis() + " trackId = " + facePreviewInfoList.get(i).getTrackId());
                         }
@@ -407,6 +559,8 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
                 .isMirror(false)
                 .previewOn(previewView)
                 .cameraListener(cameraListener)
+                .previewBufferNum(PREVIEW_BUFFER_NUM)
+                .asyncPreview(true)
                 .build();
         cameraHelper.init();
     }
@@ -432,13 +586,51 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
     }
 
     /**
-     * 删除已经离开的人脸
+     * 删除已经离开的人脸，在预览处理线程中执行，列表和adapter的操作转到主线程，只在有人脸离开时才投递到主线程
      *
      * @param facePreviewInfoList 人脸和trackId列表
+     * @param waiter              活体等待
      */
-    private void clearLeftFace(List<FacePreviewInfo> facePreviewInfoList) {
+    private void clearLeftFace(List<FacePreviewInfo> facePreviewInfoList, LivenessWaiter waiter) {
         Set<Integer> keySet = requestFeatureStatusMap.keySet();
-        if (compareResultList != null) {
+        boolean faceLeft = false;
+        if (facePreviewInfoList.size() == 0) {
+            faceLeft = !keySet.isEmpty();
+            requestFeatureStatusMap.clear();
+            waiter.clear();
+            featureRetryPolicy.clear();
+        } else {
+            for (Integer integer : keySet) {
+                boolean contained = false;
+                for (FacePreviewInfo facePreviewInfo : facePreviewInfoList) {
+                    if (facePreviewInfo.getTrackId() == integer) {
+                        contained = true;
+                        break;
+                    }
+                }
+                if (!contained) {
+                    requestFeatureStatusMap.remove(integer);
+                    waiter.remove(integer);
+                    featureRetryPolicy.remove(integer);
+                    faceLeft = true;
+                }
+            }
+        }
+        if (faceLeft) {
+            runOnUiThread(clearLeftResultRunnable);
+        }
+    }
+
+    /**
+     * 从显示列表中删除已经离开的人脸，需在主线程中执行
+     */
+    private Runnable clearLeftResultRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (compareResultList == null) {
+                return;
+            }
+            Set<Integer> keySet = requestFeatureStatusMap.keySet();
             for (int i = compareResultList.size() - 1; i >= 0; i--) {
                 if (!keySet.contains(compareResultList.get(i).getTrackId())) {
                     compareResultList.remove(i);
@@ -446,103 +638,101 @@ public class RegisterAndRecognizeActivity extends AppCompatActivity implements V
                 }
             }
         }
-        if (facePreviewInfoList == null || facePreviewInfoList.size() == 0) {
-            requestFeatureStatusMap.clear();
-            livenessMap.clear();
+    };
+
+    private void searchFace(final FaceFeature frFace, final Integer requestId) {
+        SearchDispatcher dispatcher = searchDispatcher;
+        if (dispatcher != null) {
+            dispatcher.requestSearch(frFace, requestId);
+        }
+    }
+
+    /**
+     * 处理搜索结果，需在主线程中调用
+     *
+     * @param compareResult 搜索结果
+     * @param requestId     trackId
+     */
+    private void onSearchResult(CompareResult compareResult, Integer requestId) {
+        if (compareResult == null) {
+            onRequestFailed(requestId);
+            return;
+        }
+        if (compareResult.getUserName() == null) {
+            onSearchMissed(requestId);
+            faceHelper.addName(requestId, "VISITOR " + requestId);
             return;
         }
 
-        for (Integer integer : keySet) {
-            boolean contained = false;
-            for (FacePreviewInfo facePreviewInfo : facePreviewInfoList) {
-                if (facePreviewInfo.getTrackId() == integer) {
-                    contained = true;
+//        Log.i(TAG, "onSearchResult: fr search get result  = " + System.currentTimeMillis() + " trackId = " + requestId + "  similar = " + compareResult.getSimilar());
+        if (compareResult.getSimilar() > SIMILAR_THRESHOLD) {
+            boolean isAdded = false;
+            if (compareResultList == null) {
+                onRequestFailed(requestId);
+                faceHelper.addName(requestId, "VISITOR " + requestId);
+                return;
+            }
+            for (CompareResult compareResult1 : compareResultList) {
+                if (compareResult1.getTrackId() == requestId) {
+                    isAdded = true;
                     break;
                 }
             }
-            if (!contained) {
-                requestFeatureStatusMap.remove(integer);
-                livenessMap.remove(integer);
+            if (!isAdded) {
+                //对于多人脸搜索，假如最大显示数量为 MAX_DETECT_NUM 且有新的人脸进入，则以队列的形式移除
+                if (compareResultList.size() >= MAX_DETECT_NUM) {
+                    compareResultList.remove(0);
+                    adapter.notifyItemRemoved(0);
+                }
+                //添加显示人员时，保存其trackId
+                compareResult.setTrackId(requestId);
+                compareResultList.add(compareResult);
+                adapter.notifyItemInserted(compareResultList.size() - 1);
             }
-        }
+            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.SUCCEED);
+            faceHelper.addName(requestId, compareResult.getUserName());
 
+        } else {
+            onSearchMissed(requestId);
+            faceHelper.addName(requestId, "VISITOR " + requestId);
+        }
     }
 
-    private void searchFace(final FaceFeature frFace, final Integer requestId) {
-        Observable
-                .create(new ObservableOnSubscribe<CompareResult>() {
-                    @Override
-                    public void subscribe(ObservableEmitter<CompareResult> emitter) {
-//                        Log.i(TAG, "subscribe: fr search start = " + System.currentTimeMillis() + " trackId = " + requestId);
-                        CompareResult compareResult = FaceServer.getInstance().getTopOfFaceLib(frFace);
-//                        Log.i(TAG, "subscribe: fr search end = " + System.currentTimeMillis() + " trackId = " + requestId);
-                        if (compareResult == null) {
-                            emitter.onError(null);
-                        } else {
-                            emitter.onNext(compareResult);
-                        }
-                    }
-                })
-                .subscribeOn(Schedulers.computation())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(new Observer<CompareResult>() {
-                    @Override
-                    public void onSubscribe(Disposable d) {
-
-                    }
-
-                    @Override
-                    public void onNext(CompareResult compareResult) {
-                        if (compareResult == null || compareResult.getUserName() == null) {
-                            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
-                            faceHelper.addName(requestId, "VISITOR " + requestId);
-                            return;
-                        }
-
-//                        Log.i(TAG, "onNext: fr search get result  = " + System.currentTimeMillis() + " trackId = " + requestId + "  similar = " + compareResult.getSimilar());
-                        if (compareResult.getSimilar() > SIMILAR_THRESHOLD) {
-                            boolean isAdded = false;
-                            if (compareResultList == null) {
-                                requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
-                                faceHelper.addName(requestId, "VISITOR " + requestId);
-                                return;
-                            }
-                            for (CompareResult compareResult1 : compareResultList) {
-                                if (compareResult1.getTrackId() == requestId) {
-                                    isAdded = true;
-                                    break;
-                                }
-                            }
-                            if (!isAdded) {
-                                //对于多人脸搜索，假如最大显示数量为 MAX_DETECT_NUM 且有新的人脸进入，则以队列的形式移除
-                                if (compareResultList.size() >= MAX_DETECT_NUM) {
-                                    compareResultList.remove(0);
-                                    adapter.notifyItemRemoved(0);
-                                }
-                                //添加显示人员时，保存其trackId
-                                compareResult.setTrackId(requestId);
-                                compareResultList.add(compareResult);
-                                adapter.notifyItemInserted(compareResultList.size() - 1);
-                            }
-                            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.SUCCEED);
-                            faceHelper.addName(requestId, compareResult.getUserName());
-
-                        } else {
-                            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
-                            faceHelper.addName(requestId, "VISITOR " + requestId);
-                        }
-                    }
-
-                    @Override
-                    public void onError(Throwable e) {
-                        requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
-                    }
+    /**
+     * 判断人脸是否需要通过活体检测才能搜索，多人脸模式下可配置为只对最大人脸进行活体检测
+     *
+     * @param trackId trackId
+     * @return 是否需要活体检测
+     */
+    private boolean isLivenessRequired(Integer trackId) {
+        FaceHelper helper = faceHelper;
+        return livenessDetect && (helper == null || helper.isLivenessRequired(trackId));
+    }
 
-                    @Override
-                    public void onComplete() {
+    /**
+     * 特征提取或搜索出错，按{@link #featureRetryPolicy}等待一段时间后重试，出错次数达到上限后不再重试
+     *
+     * @param requestId trackId
+     */
+    private void onRequestFailed(Integer requestId) {
+        if (featureRetryPolicy.onFailure(requestId)) {
+            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.UNKNOWN);
+        } else {
+            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
+        }
+    }
 
-                    }
-                });
+    /**
+     * 人脸库中没有匹配的人脸，未命中次数达到上限后不再重试
+     *
+     * @param requestId trackId
+     */
+    private void onSearchMissed(Integer requestId) {
+        if (featureRetryPolicy.onSearchMissed(requestId)) {
+            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.UNKNOWN);
+        } else {
+            requestFeatureStatusMap.put(requestId, RequestFeatureStatus.FAILED);
+        }
     }
 
 
@@ -41,6 +41,8 @@ import com.arcsoft.face.FaceSimilar;
 import com.arcsoft.face.GenderInfo;
 import com.arcsoft.arcfacedemo.R;
 import com.arcsoft.arcfacedemo.util.ImageUtil;
+import com.arcsoft.arcfacedemo.util.face.FaceEngineLease;
+import com.arcsoft.arcfacedemo.util.face.FaceEngineManager;
 import com.arcsoft.face.LivenessInfo;
 import com.arcsoft.face.VersionInfo;
 
@@ -62,6 +64,7 @@ public class SingleImageActivity extends AppCompatActivity {
     private ImageView ivShow;
     private TextView tvNotice;
     private FaceEngine faceEngine;
+    private FaceEngineLease faceEngineLease;
     private int faceEngineCode = -1;
     /**
      * 请求权限的请求码
@@ -111,26 +114,30 @@ public class SingleImageActivity extends AppCompatActivity {
     }
 
     private void initEngine() {
-        faceEngine = new FaceEngine();
-        faceEngineCode = faceEngine.init(this, FaceEngine.ASF_DETECT_MODE_IMAGE, FaceEngine.ASF_OP_0_HIGHER_EXT,
-                16, 10, FaceEngine.ASF_FACE_RECOGNITION | FaceEngine.ASF_FACE_DETECT | FaceEngine.ASF_AGE | FaceEngine.ASF_GENDER | FaceEngine.ASF_FACE3DANGLE | FaceEngine.ASF_LIVENESS);
-        VersionInfo versionInfo = new VersionInfo();
-        faceEngine.getVersion(versionInfo);
-        Log.i(TAG, "initEngine: init: " + faceEngineCode + "  version:" + versionInfo);
+        faceEngineLease = FaceEngineManager.getInstance().acquire(this, new FaceEngineManager.EngineConfig(FaceEngine.ASF_DETECT_MODE_IMAGE, FaceEngine.ASF_OP_0_HIGHER_EXT,
+                16, 10, FaceEngine.ASF_FACE_RECOGNITION | FaceEngine.ASF_FACE_DETECT | FaceEngine.ASF_AGE | FaceEngine.ASF_GENDER | FaceEngine.ASF_FACE3DANGLE | FaceEngine.ASF_LIVENESS));
+        faceEngine = faceEngineLease.getFaceEngine();
+        faceEngineCode = faceEngineLease.getInitCode();
 
         if (faceEngineCode != ErrorInfo.MOK) {
             Toast.makeText(this, getString(R.string.init_failed, faceEngineCode), Toast.LENGTH_SHORT).show();
+            return;
         }
+        VersionInfo versionInfo = new VersionInfo();
+        faceEngine.getVersion(versionInfo);
+        Log.i(TAG, "initEngine: init: " + faceEngineCode + "  version:" + versionInfo);
     }
 
     /**
      * 销毁引擎
      */
     private void unInitEngine() {
-        if (faceEngine != null) {
-            faceEngineCode = faceEngine.unInit();
+        if (faceEngineLease != null) {
+            faceEngineLease.release();
+            faceEngineLease = null;
             faceEngine = null;
-            Log.i(TAG, "unInitEngine: " + faceEngineCode);
+            faceEngineCode = -1;
+            Log.i(TAG, "unInitEngine: engine returned to pool");
         }
     }
 
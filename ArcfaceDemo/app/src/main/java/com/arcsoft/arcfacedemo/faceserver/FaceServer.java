@@ -8,8 +8,9 @@ import android.graphics.Rect;
 import android.graphics.YuvImage;
 import android.util.Log;
 
-import com.arcsoft.arcfacedemo.model.FaceRegisterInfo;
 import com.arcsoft.arcfacedemo.util.ImageUtil;
+import com.arcsoft.arcfacedemo.util.face.FaceEngineLease;
+import com.arcsoft.arcfacedemo.util.face.FaceEngineManager;
 import com.arcsoft.face.ErrorInfo;
 import com.arcsoft.face.FaceEngine;
 import com.arcsoft.face.FaceFeature;
@@ -22,6 +23,15 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 人脸库操作类，包含注册和搜索
@@ -29,17 +39,103 @@ import java.util.List;
 public class FaceServer {
     private static final String TAG = "FaceServer";
     public static final String IMG_SUFFIX = ".jpg";
+    private static final String IMG_TEMP_SUFFIX = ".tmp";
+    /**
+     * 注册时用于人脸检测和特征提取的引擎
+     */
     private static FaceEngine faceEngine = null;
+    /**
+     * 顺序搜索和近似搜索使用的引擎，和注册使用的引擎分开，注册时不会阻塞搜索
+     */
+    private static FaceEngine compareEngine = null;
+    /**
+     * 以上两个引擎的租约，引擎均从{@link FaceEngineManager}租借，销毁时归还
+     */
+    private static FaceEngineLease faceEngineLease = null;
+    private static FaceEngineLease compareEngineLease = null;
+    /**
+     * 注册使用的引擎参数
+     */
+    private static final FaceEngineManager.EngineConfig CONFIG_REGISTER = new FaceEngineManager.EngineConfig(FaceEngine.ASF_DETECT_MODE_IMAGE,
+            FaceEngine.ASF_OP_0_HIGHER_EXT, 16, 1, FaceEngine.ASF_FACE_RECOGNITION | FaceEngine.ASF_FACE_DETECT);
     private static FaceServer faceServer = null;
-    private static List<FaceRegisterInfo> faceRegisterInfoList;
+    /**
+     * 人脸库的当前快照，特征数据连续存放。搜索时无需加锁，读取到的快照在搜索过程中不会变化；
+     * 注册、清空等写操作在{@link FaceServer}的锁内生成新的快照后整体替换
+     */
+    private static volatile FeatureMatrix featureMatrix;
+    /**
+     * 人脸库中下标发生变化（清空、删除）的次数，用于判断索引是否失效
+     */
+    private static volatile int featureMatrixGeneration = 0;
     public static String ROOT_PATH;
     public static final String SAVE_IMG_DIR = "register" + File.separator + "imgs";
+    /**
+     * 旧版本每个人脸一个特征文件的保存目录，初始化时会导入到{@link #SAVE_FEATURE_FILE}中
+     */
     private static final String SAVE_FEATURE_DIR = "register" + File.separator + "features";
+    private static final String SAVE_FEATURE_FILE = "register" + File.separator + "features.dat";
+
+    /**
+     * 搜索模式，单线程顺序搜索
+     */
+    public static final int SEARCH_MODE_SEQUENTIAL = 0;
+    /**
+     * 搜索模式，将人脸库分片后多线程并行搜索
+     */
+    public static final int SEARCH_MODE_PARALLEL = 1;
+    /**
+     * 搜索模式，使用{@link PivotIndex}近似搜索，适用于大规模人脸库，索引在子线程中建立，建立完成前使用顺序搜索
+     */
+    public static final int SEARCH_MODE_INDEX = 2;
+    /**
+     * 近似搜索时默认精确比对的聚类数量
+     */
+    private static final int DEFAULT_INDEX_PROBE_NUM = 8;
+    /**
+     * 并行搜索时每个分片的最小人脸数，人脸库较小时分片过多反而得不偿失
+     */
+    private static final int MIN_SHARD_SIZE = 512;
 
     /**
-     * 是否正在搜索人脸，保证搜索操作单线程进行
+     * 人脸库加载模式，初始化时将所有特征数据读入堆内存
+     */
+    public static final int GALLERY_MODE_HEAP = 0;
+    /**
+     * 人脸库加载模式，内存映射人脸库文件，按需调页，初始化耗时和堆内存占用不随人脸库大小增长
      */
-    private boolean isProcessing = false;
+    public static final int GALLERY_MODE_MAPPED = 1;
+
+    private int galleryMode = GALLERY_MODE_HEAP;
+
+    /**
+     * 搜索和注册等待异步初始化完成的最长时间
+     */
+    private static final long WAIT_INIT_TIMEOUT = 10000;
+    private ExecutorService initExecutor = Executors.newCachedThreadPool();
+    /**
+     * 最近一次异步初始化的结果
+     */
+    private volatile Future<Boolean> initFuture;
+
+    private int searchMode = SEARCH_MODE_SEQUENTIAL;
+    private int indexProbeNum = DEFAULT_INDEX_PROBE_NUM;
+    /**
+     * 近似搜索索引，读写时需持有{@link #compareEngine}的锁
+     */
+    private volatile PivotIndex pivotIndex;
+    /**
+     * 是否有正在子线程中建立的索引
+     */
+    private final AtomicBoolean indexBuilding = new AtomicBoolean();
+    private Context applicationContext;
+    private FeatureFile featureFile;
+    /**
+     * 并行搜索使用的引擎，每个分片线程独占一个，引擎实例不支持多线程同时调用
+     */
+    private volatile FaceEngine[] searchEngines;
+    private List<FaceEngineLease> searchEngineLeases;
+    private ExecutorService searchExecutor;
 
     public static FaceServer getInstance() {
         if (faceServer == null) {
@@ -53,7 +149,7 @@ public class FaceServer {
     }
 
     /**
-     * 初始化
+     * 初始化，引擎初始化和人脸库加载同时进行
      *
      * @param context 上下文对象
      * @return 是否初始化成功
@@ -61,14 +157,43 @@ public class FaceServer {
     public boolean init(Context context) {
         synchronized (this) {
             if (faceEngine == null && context != null) {
-                faceEngine = new FaceEngine();
-                int engineCode = faceEngine.init(context, FaceEngine.ASF_DETECT_MODE_IMAGE, FaceEngine.ASF_OP_0_HIGHER_EXT, 16, 1, FaceEngine.ASF_FACE_RECOGNITION | FaceEngine.ASF_FACE_DETECT);
-                if (engineCode == ErrorInfo.MOK) {
-                    initFaceList(context);
+                applicationContext = context.getApplicationContext();
+                FutureTask<FaceEngineLease[]> engineTask = new FutureTask<>(new Callable<FaceEngineLease[]>() {
+                    @Override
+                    public FaceEngineLease[] call() {
+                        FaceEngineLease lease = FaceEngineManager.getInstance().acquire(applicationContext, CONFIG_REGISTER);
+                        if (lease.getInitCode() != ErrorInfo.MOK) {
+                            Log.e(TAG, "init: failed! code = " + lease.getInitCode());
+                            return null;
+                        }
+                        FaceEngineLease leaseForCompare = FaceEngineManager.getInstance().acquire(applicationContext, FaceEngineManager.CONFIG_RECOGNITION);
+                        if (leaseForCompare.getInitCode() != ErrorInfo.MOK) {
+                            Log.e(TAG, "init: compare engine failed! code = " + leaseForCompare.getInitCode());
+                            lease.release();
+                            return null;
+                        }
+                        return new FaceEngineLease[]{lease, leaseForCompare};
+                    }
+                });
+                initExecutor.execute(engineTask);
+                initFaceList(context);
+                FaceEngineLease[] engines = null;
+                try {
+                    engines = engineTask.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
+                }
+                if (engines != null) {
+                    faceEngineLease = engines[0];
+                    compareEngineLease = engines[1];
+                    faceEngine = faceEngineLease.getFaceEngine();
+                    compareEngine = compareEngineLease.getFaceEngine();
                     return true;
                 } else {
-                    faceEngine = null;
-                    Log.e(TAG, "init: failed! code = " + engineCode);
+                    featureMatrix = null;
+                    featureMatrixGeneration++;
                     return false;
                 }
             }
@@ -76,18 +201,258 @@ public class FaceServer {
         }
     }
 
+    /**
+     * 在子线程中初始化，初始化完成前调用的{@link #search}和{@link #register}会等待初始化完成。
+     * 搜索模式为{@link #SEARCH_MODE_INDEX}时，初始化成功后继续在子线程中建立索引
+     *
+     * @param context  上下文对象
+     * @param listener 初始化结束的回调，可为空
+     * @return 初始化结果
+     */
+    public Future<Boolean> initAsync(final Context context, final InitListener listener) {
+        Future<Boolean> future = initExecutor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                boolean success = init(context);
+                if (listener != null) {
+                    listener.onInitFinished(success);
+                }
+                if (success) {
+                    buildIndexAsync();
+                }
+                return success;
+            }
+        });
+        initFuture = future;
+        return future;
+    }
+
+    /**
+     * @return 引擎和人脸库是否已可用
+     */
+    public boolean isInitialized() {
+        return faceEngine != null;
+    }
+
+    /**
+     * 若异步初始化正在进行，等待其完成，最多等待{@link #WAIT_INIT_TIMEOUT}毫秒
+     */
+    private void awaitInit() {
+        Future<Boolean> future = initFuture;
+        if (future == null || future.isDone()) {
+            return;
+        }
+        try {
+            future.get(WAIT_INIT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } catch (TimeoutException e) {
+            Log.e(TAG, "awaitInit: timeout");
+        }
+    }
+
     /**
      * 销毁
      */
     public void unInit() {
         synchronized (this) {
-            if (faceRegisterInfoList != null) {
-                faceRegisterInfoList.clear();
-                faceRegisterInfoList = null;
-            }
+            featureMatrix = null;
+            featureMatrixGeneration++;
+            pivotIndex = null;
             if (faceEngine != null) {
-                faceEngine.unInit();
+                faceEngineLease.release();
                 faceEngine = null;
+                faceEngineLease = null;
+            }
+            if (compareEngine != null) {
+                //在引擎的锁内置空，等待该锁的搜索获得锁后可以发现引擎已被销毁
+                synchronized (compareEngine) {
+                    compareEngineLease.release();
+                    compareEngine = null;
+                    compareEngineLease = null;
+                }
+            }
+            unInitSearchEngines();
+            applicationContext = null;
+        }
+    }
+
+    /**
+     * 设置搜索模式
+     * <ul>
+     * <li>{@link #SEARCH_MODE_SEQUENTIAL}：单线程顺序搜索，结果精确</li>
+     * <li>{@link #SEARCH_MODE_PARALLEL}：人脸库分片后多线程并行搜索，结果精确，人脸库较小时退化为顺序搜索</li>
+     * <li>{@link #SEARCH_MODE_INDEX}：使用索引近似搜索，只比对部分人脸，可能漏掉匹配的人脸，
+     * 召回率由{@link #setIndexProbeNum(int)}和人脸的注册顺序决定，见{@link PivotIndex}。
+     * 已初始化时立即在子线程中建立索引，否则在{@link #initAsync}完成后建立；使用{@link #init(Context)}同步初始化时需自行调用{@link #buildIndex()}。
+     * 索引建立完成前，以及同名重新注册、清空人脸库导致索引失效后重建完成前，使用顺序搜索</li>
+     * </ul>
+     *
+     * @param searchMode {@link #SEARCH_MODE_SEQUENTIAL}、{@link #SEARCH_MODE_PARALLEL}或{@link #SEARCH_MODE_INDEX}
+     */
+    public void setSearchMode(int searchMode) {
+        this.searchMode = searchMode;
+        buildIndexAsync();
+    }
+
+    public int getSearchMode() {
+        return searchMode;
+    }
+
+    /**
+     * 设置人脸库加载模式，在下一次{@link #init(Context)}时生效
+     *
+     * @param galleryMode {@link #GALLERY_MODE_HEAP}或{@link #GALLERY_MODE_MAPPED}
+     */
+    public void setGalleryMode(int galleryMode) {
+        this.galleryMode = galleryMode;
+    }
+
+    public int getGalleryMode() {
+        return galleryMode;
+    }
+
+    /**
+     * 设置近似搜索时精确比对的聚类数量，越大召回率越高，耗时也越长
+     *
+     * @param indexProbeNum 聚类数量
+     */
+    public void setIndexProbeNum(int indexProbeNum) {
+        if (indexProbeNum > 0) {
+            this.indexProbeNum = indexProbeNum;
+        }
+    }
+
+    /**
+     * 为当前人脸库建立近似搜索索引，需要约N*sqrt(N)次比对，耗时较长，需在子线程调用。
+     * 建立完成后，新注册的人脸会增量加入索引。聚类中心按注册顺序选出，召回率与注册顺序有关，见{@link PivotIndex}
+     *
+     * @return 是否建立成功
+     */
+    public boolean buildIndex() {
+        FeatureMatrix matrix;
+        Context context;
+        int generation;
+        //注册时先使下标失效再替换人脸库，需在锁内同时读取人脸库和版本号
+        synchronized (this) {
+            matrix = featureMatrix;
+            context = applicationContext;
+            generation = featureMatrixGeneration;
+        }
+        if (matrix == null || context == null) {
+            return false;
+        }
+        //使用单独的引擎建立索引，不阻塞搜索
+        FaceEngineLease indexEngineLease = FaceEngineManager.getInstance().acquire(context, FaceEngineManager.CONFIG_RECOGNITION);
+        if (indexEngineLease.getInitCode() != ErrorInfo.MOK) {
+            Log.e(TAG, "buildIndex: init engine failed! code = " + indexEngineLease.getInitCode());
+            return false;
+        }
+        PivotIndex index = new PivotIndex();
+        int size = matrix.size();
+        while (index.size() < size) {
+            index.addNext(indexEngineLease.getFaceEngine(), matrix);
+        }
+        indexEngineLease.release();
+        synchronized (this) {
+            FaceEngine engine = compareEngine;
+            if (engine == null || generation != featureMatrixGeneration) {
+                return false;
+            }
+            //建立索引期间新注册的人脸
+            matrix = featureMatrix;
+            synchronized (engine) {
+                while (index.size() < matrix.size()) {
+                    index.addNext(engine, matrix);
+                }
+                pivotIndex = index;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 搜索模式为{@link #SEARCH_MODE_INDEX}且索引不可用时，在子线程中建立索引；
+     * 建立期间人脸库发生变化导致索引失效时重新建立
+     */
+    private void buildIndexAsync() {
+        if (searchMode != SEARCH_MODE_INDEX || pivotIndex != null || !isInitialized()
+                || !indexBuilding.compareAndSet(false, true)) {
+            return;
+        }
+        final int generation = featureMatrixGeneration;
+        initExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                try {
+                    success = buildIndex();
+                } finally {
+                    indexBuilding.set(false);
+                }
+                if (!success && generation != featureMatrixGeneration) {
+                    buildIndexAsync();
+                }
+            }
+        });
+    }
+
+    /**
+     * 初始化并行搜索使用的引擎和线程池，引擎数量和CPU核数相同
+     *
+     * @return 是否有可用的搜索引擎
+     */
+    private boolean initSearchEngines() {
+        if (searchEngines != null) {
+            return true;
+        }
+        synchronized (this) {
+            if (searchEngines != null) {
+                return true;
+            }
+            if (applicationContext == null) {
+                return false;
+            }
+            int engineNum = Runtime.getRuntime().availableProcessors();
+            List<FaceEngineLease> leaseList = new ArrayList<>();
+            List<FaceEngine> engineList = new ArrayList<>();
+            for (int i = 0; i < engineNum; i++) {
+                FaceEngineLease lease = FaceEngineManager.getInstance().acquire(applicationContext, FaceEngineManager.CONFIG_RECOGNITION);
+                if (lease.getInitCode() != ErrorInfo.MOK) {
+                    Log.e(TAG, "initSearchEngines: failed! code = " + lease.getInitCode());
+                    break;
+                }
+                leaseList.add(lease);
+                engineList.add(lease.getFaceEngine());
+            }
+            if (engineList.size() == 0) {
+                return false;
+            }
+            searchEngineLeases = leaseList;
+            searchEngines = engineList.toArray(new FaceEngine[0]);
+            searchExecutor = Executors.newFixedThreadPool(searchEngines.length);
+            return true;
+        }
+    }
+
+    private void unInitSearchEngines() {
+        synchronized (this) {
+            if (searchExecutor != null) {
+                searchExecutor.shutdown();
+                searchExecutor = null;
+            }
+            FaceEngine[] engines = searchEngines;
+            if (engines != null) {
+                //先置空，等待引擎锁的分片任务获得锁后可以发现引擎已被销毁
+                searchEngines = null;
+                for (int i = 0; i < engines.length; i++) {
+                    synchronized (engines[i]) {
+                        searchEngineLeases.get(i).release();
+                    }
+                }
+                searchEngineLeases = null;
             }
         }
     }
@@ -102,22 +467,97 @@ public class FaceServer {
             if (ROOT_PATH == null) {
                 ROOT_PATH = context.getFilesDir().getAbsolutePath();
             }
-            File featureDir = new File(ROOT_PATH + File.separator + SAVE_FEATURE_DIR);
-            if (!featureDir.exists() || !featureDir.isDirectory()) {
-                return;
+            FeatureFile featureFile = getFeatureFile();
+            importLegacyFeatures(featureFile);
+            featureMatrix = loadFeatureMatrix(featureFile);
+            featureMatrixGeneration++;
+        }
+    }
+
+    /**
+     * 根据{@link #galleryMode}加载人脸库
+     *
+     * @param featureFile 人脸库文件
+     * @return 人脸库
+     */
+    private FeatureMatrix loadFeatureMatrix(FeatureFile featureFile) {
+        if (galleryMode == GALLERY_MODE_MAPPED) {
+            try {
+                return MappedFeatureMatrix.map(featureFile.getFile());
+            } catch (IOException e) {
+                Log.e(TAG, "loadFeatureMatrix: map failed, load into heap instead. " + e.getMessage());
+            }
+        }
+        return featureFile.load();
+    }
+
+    /**
+     * 人脸库文件，同一个实例维护名字到记录序号的映射，需在{@code this}的锁内使用
+     */
+    private FeatureFile getFeatureFile() {
+        if (featureFile == null) {
+            featureFile = new FeatureFile(new File(ROOT_PATH + File.separator + SAVE_FEATURE_FILE));
+        }
+        return featureFile;
+    }
+
+    /**
+     * 将旧版本保存的单个特征文件导入到人脸库文件中，导入成功后删除原文件
+     *
+     * @param featureFile 人脸库文件
+     */
+    private void importLegacyFeatures(FeatureFile featureFile) {
+        File featureDir = new File(ROOT_PATH + File.separator + SAVE_FEATURE_DIR);
+        if (!featureDir.exists() || !featureDir.isDirectory()) {
+            return;
+        }
+        File[] legacyFeatureFiles = featureDir.listFiles();
+        if (legacyFeatureFiles == null || legacyFeatureFiles.length == 0) {
+            return;
+        }
+        byte[] feature = new byte[FaceFeature.FEATURE_SIZE];
+        int importedCount = 0;
+        int failedCount = 0;
+        for (File legacyFeatureFile : legacyFeatureFiles) {
+            if (readLegacyFeature(legacyFeatureFile, feature) && featureFile.append(legacyFeatureFile.getName(), feature)) {
+                legacyFeatureFile.delete();
+                importedCount++;
+            } else {
+                //导入失败的文件保留，下次初始化时重试
+                Log.e(TAG, "importLegacyFeatures: failed to import " + legacyFeatureFile.getName());
+                failedCount++;
             }
-            File[] featureFiles = featureDir.listFiles();
-            if (featureFiles == null || featureFiles.length == 0) {
-                return;
+        }
+        Log.i(TAG, "importLegacyFeatures: imported " + importedCount + " feature files, failed " + failedCount);
+    }
+
+    /**
+     * 读取旧格式的特征文件
+     *
+     * @param legacyFeatureFile 旧格式的特征文件
+     * @param feature           读取的特征数据
+     * @return 是否读取到完整的特征数据
+     */
+    private static boolean readLegacyFeature(File legacyFeatureFile, byte[] feature) {
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(legacyFeatureFile);
+            int readLength = 0;
+            while (readLength < feature.length) {
+                int n = fis.read(feature, readLength, feature.length - readLength);
+                if (n < 0) {
+                    break;
+                }
+                readLength += n;
             }
-            faceRegisterInfoList = new ArrayList<>();
-            for (File featureFile : featureFiles) {
+            return readLength == FaceFeature.FEATURE_SIZE;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (fis != null) {
                 try {
-                    FileInputStream fis = new FileInputStream(featureFile);
-                    byte[] feature = new byte[FaceFeature.FEATURE_SIZE];
-                    fis.read(feature);
                     fis.close();
-                    faceRegisterInfoList.add(new FaceRegisterInfo(feature, featureFile.getName()));
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -134,11 +574,15 @@ public class FaceServer {
                 ROOT_PATH = context.getFilesDir().getAbsolutePath();
             }
 
-            File featureFileDir = new File(ROOT_PATH + File.separator + SAVE_FEATURE_DIR);
             int featureCount = 0;
-            if (featureFileDir.exists() && featureFileDir.isDirectory()) {
-                String[] featureFiles = featureFileDir.list();
-                featureCount = featureFiles == null ? 0 : featureFiles.length;
+            if (featureMatrix == null) {
+                featureCount = getFeatureFile().countValid();
+            } else {
+                for (int i = 0; i < featureMatrix.size(); i++) {
+                    if (featureMatrix.isValid(i)) {
+                        featureCount++;
+                    }
+                }
             }
             int imageCount = 0;
             File imgFileDir = new File(ROOT_PATH + File.separator + SAVE_IMG_DIR);
@@ -158,16 +602,21 @@ public class FaceServer {
             if (ROOT_PATH == null) {
                 ROOT_PATH = context.getFilesDir().getAbsolutePath();
             }
-            if (faceRegisterInfoList != null) {
-                faceRegisterInfoList.clear();
+            pivotIndex = null;
+            FeatureFile featureFile = getFeatureFile();
+            int deletedFeatureCount = featureFile.countValid();
+            if (!featureFile.clear()) {
+                deletedFeatureCount = 0;
             }
+            featureMatrix = loadFeatureMatrix(featureFile);
+            featureMatrixGeneration++;
+            buildIndexAsync();
             File featureFileDir = new File(ROOT_PATH + File.separator + SAVE_FEATURE_DIR);
-            int deletedFeatureCount = 0;
             if (featureFileDir.exists() && featureFileDir.isDirectory()) {
                 File[] featureFiles = featureFileDir.listFiles();
                 if (featureFiles != null && featureFiles.length > 0) {
-                    for (File featureFile : featureFiles) {
-                        if (featureFile.delete()) {
+                    for (File legacyFeatureFile : featureFiles) {
+                        if (legacyFeatureFile.delete()) {
                             deletedFeatureCount++;
                         }
                     }
@@ -200,17 +649,24 @@ public class FaceServer {
      * @return 是否注册成功
      */
     public boolean register(Context context, byte[] nv21, int width, int height, String name) {
+        awaitInit();
         synchronized (this) {
             if (faceEngine == null || context == null || nv21 == null || width % 4 != 0 || nv21.length != width * height * 3 / 2) {
                 return false;
             }
+            //名字过长时无法保存，在检测和保存注册图之前拒绝
+            if (name != null && !FeatureFile.isNameValid(name)) {
+                Log.e(TAG, "register: name is too long: " + name);
+                return false;
+            }
 
             if (ROOT_PATH == null) {
                 ROOT_PATH = context.getFilesDir().getAbsolutePath();
             }
             boolean dirExists = true;
-            //特征存储的文件夹
-            File featureDir = new File(ROOT_PATH + File.separator + SAVE_FEATURE_DIR);
+            //特征存储的文件所在的文件夹
+            FeatureFile featureFile = getFeatureFile();
+            File featureDir = featureFile.getFile().getParentFile();
             if (!featureDir.exists()) {
                 dirExists = featureDir.mkdirs();
             }
@@ -234,6 +690,7 @@ public class FaceServer {
                 //2.特征提取
                 code = faceEngine.extractFaceFeature(nv21, width, height, FaceEngine.CP_PAF_NV21, faceInfoList.get(0), faceFeature);
                 String userName = name == null ? String.valueOf(System.currentTimeMillis()) : name;
+                File file = null;
                 try {
                     //3.保存注册结果（注册图、特征数据）
                     if (code == ErrorInfo.MOK) {
@@ -243,7 +700,9 @@ public class FaceServer {
                         if (cropRect == null) {
                             return false;
                         }
-                        File file = new File(imgDir + File.separator + userName + IMG_SUFFIX);
+                        //注册图先写入临时文件，记录追加成功后再替换，失败时不留下孤立的注册图，也不覆盖同名的旧注册图
+                        File imgFile = new File(imgDir + File.separator + userName + IMG_SUFFIX);
+                        file = new File(imgFile.getPath() + IMG_TEMP_SUFFIX);
                         FileOutputStream fosImage = new FileOutputStream(file);
                         yuvImage.compressToJpeg(cropRect, 100, fosImage);
                         fosImage.close();
@@ -277,19 +736,63 @@ public class FaceServer {
                             fosImage.close();
                         }
 
-                        FileOutputStream fosFeature = new FileOutputStream(featureDir + File.separator + userName);
-                        fosFeature.write(faceFeature.getFeatureData());
-                        fosFeature.close();
+                        //先追加新的记录，新的快照生效后再将同名的旧记录标记为已删除，
+                        //避免内存映射的快照中同名的人脸短暂消失
+                        int oldRecordCount = featureFile.getRecordCount();
+                        if (!featureFile.append(userName, faceFeature.getFeatureData())) {
+                            file.delete();
+                            return false;
+                        }
+                        if (!file.renameTo(imgFile)) {
+                            Log.e(TAG, "register: failed to save image " + imgFile);
+                            file.delete();
+                        }
 
-                        //内存中的数据同步
-                        if (faceRegisterInfoList == null) {
-                            faceRegisterInfoList = new ArrayList<>();
+                        //内存中的数据同步，生成新的快照后整体替换，正在进行的搜索不受影响
+                        FeatureMatrix newFeatureMatrix;
+                        if (featureMatrix instanceof HeapFeatureMatrix) {
+                            HeapFeatureMatrix heapFeatureMatrix = (HeapFeatureMatrix) featureMatrix;
+                            //同名的人脸视为重新注册
+                            HeapFeatureMatrix removedFeatureMatrix = heapFeatureMatrix.minus(userName);
+                            if (removedFeatureMatrix != heapFeatureMatrix) {
+                                //下标发生了变化，需要重新建立索引
+                                pivotIndex = null;
+                                featureMatrixGeneration++;
+                                heapFeatureMatrix = removedFeatureMatrix;
+                            }
+                            newFeatureMatrix = heapFeatureMatrix.plus(faceFeature.getFeatureData(), userName);
+                        } else {
+                            //内存映射的人脸库下标不会变化，只映射新增的记录，同名的旧记录在新的快照中删除
+                            int[] oldRecords = featureFile.findRecords(userName, oldRecordCount);
+                            try {
+                                newFeatureMatrix = ((MappedFeatureMatrix) featureMatrix).extend(featureFile.getFile()).minus(oldRecords);
+                            } catch (IOException e) {
+                                Log.e(TAG, "register: extend failed, reload. " + e.getMessage());
+                                //重新加载的人脸库不再与之前的快照共享删除记录，先删除再加载，之前的快照中旧记录随即不可见
+                                featureFile.remove(userName, oldRecordCount);
+                                newFeatureMatrix = loadFeatureMatrix(featureFile);
+                            }
+                        }
+                        featureMatrix = newFeatureMatrix;
+                        //同名的旧记录标记为已删除，已发布的快照不受影响
+                        featureFile.remove(userName, oldRecordCount);
+                        //索引已建立时增量加入
+                        FaceEngine engine = compareEngine;
+                        if (engine != null) {
+                            synchronized (engine) {
+                                if (pivotIndex != null && pivotIndex.size() == newFeatureMatrix.size() - 1) {
+                                    pivotIndex.addNext(engine, newFeatureMatrix);
+                                }
+                            }
                         }
-                        faceRegisterInfoList.add(new FaceRegisterInfo(faceFeature.getFeatureData(), userName));
+                        buildIndexAsync();
                         return true;
                     }
                 } catch (IOException e) {
                     e.printStackTrace();
+                    if (file != null) {
+                        file.delete();
+                    }
                 }
             }
             return false;
@@ -298,33 +801,206 @@ public class FaceServer {
     }
 
     /**
-     * 在特征库中搜索
+     * 在特征库中搜索最相似的人脸
      *
      * @param faceFeature 传入特征数据
      * @return 比对结果
      */
     public CompareResult getTopOfFaceLib(FaceFeature faceFeature) {
-        if (faceEngine == null || isProcessing || faceFeature == null || faceRegisterInfoList == null || faceRegisterInfoList.size() == 0) {
+        List<CompareResult> compareResultList = search(faceFeature, 1, 0, Float.MAX_VALUE);
+        return compareResultList.size() == 0 ? null : compareResultList.get(0);
+    }
+
+    /**
+     * 在特征库中搜索相似度最高的K个人脸，根据{@link #searchMode}选择顺序搜索、并行搜索或近似搜索，
+     * 多个线程同时搜索时会依次等待引擎空闲，异步初始化未完成时会等待其完成，不要在主线程调用
+     *
+     * @param faceFeature 传入特征数据
+     * @param k           最多返回的结果数
+     * @param minScore    相似度需高于该值才会被返回
+     * @param acceptScore 相似度达到该值时立即结束搜索，此时返回的结果只包含已比对过的人脸
+     * @return 按相似度从高到低排列的比对结果，不会为null
+     */
+    public List<CompareResult> search(FaceFeature faceFeature, int k, float minScore, float acceptScore) {
+        List<FaceFeature> faceFeatureList = new ArrayList<>();
+        faceFeatureList.add(faceFeature);
+        return searchBatch(faceFeatureList, k, minScore, acceptScore).get(0);
+    }
+
+    /**
+     * 批量搜索，只遍历一次人脸库，每条特征数据读取一次后依次与所有传入的特征比对。
+     * 近似搜索模式下只有一个特征时使用索引，多个特征时使用顺序或并行的精确搜索
+     *
+     * @param faceFeatureList 传入的特征数据列表
+     * @param k               每个特征最多返回的结果数
+     * @param minScore        相似度需高于该值才会被返回
+     * @param acceptScore     某个特征的相似度达到该值时不再与其比对，所有特征都达到时立即结束搜索
+     * @return 与faceFeatureList一一对应的比对结果，每项按相似度从高到低排列，不会为null
+     */
+    public List<List<CompareResult>> searchBatch(List<FaceFeature> faceFeatureList, int k, float minScore, float acceptScore) {
+        awaitInit();
+        List<List<CompareResult>> batchResultList = new ArrayList<>();
+        int probeNum = faceFeatureList == null ? 0 : faceFeatureList.size();
+        for (int i = 0; i < probeNum; i++) {
+            batchResultList.add(new ArrayList<CompareResult>());
+        }
+        FaceEngine engine = compareEngine;
+        FeatureMatrix matrix = featureMatrix;
+        if (engine == null || matrix == null || k <= 0 || probeNum == 0) {
+            return batchResultList;
+        }
+        int size = matrix.size();
+        if (size == 0) {
+            return batchResultList;
+        }
+        FaceFeature[] probes = new FaceFeature[probeNum];
+        AtomicBoolean[] accepted = new AtomicBoolean[probeNum];
+        for (int i = 0; i < probeNum; i++) {
+            probes[i] = faceFeatureList.get(i);
+            //为空的特征不参与比对
+            accepted[i] = new AtomicBoolean(probes[i] == null);
+        }
+        TopKCollector[] collectors;
+        if (searchMode == SEARCH_MODE_PARALLEL && size >= MIN_SHARD_SIZE * 2 && initSearchEngines()) {
+            collectors = searchParallel(probes, matrix, size, k, minScore, acceptScore, accepted);
+        } else {
+            collectors = newCollectors(probeNum, k, minScore, acceptScore);
+            synchronized (engine) {
+                //等待锁期间引擎可能已被销毁
+                if (engine != compareEngine) {
+                    return batchResultList;
+                }
+                PivotIndex index = pivotIndex;
+                if (searchMode == SEARCH_MODE_INDEX && probeNum == 1 && probes[0] != null && index != null && index.size() == size) {
+                    index.search(engine, matrix, probes[0], indexProbeNum, collectors[0], accepted[0]);
+                } else {
+                    searchRange(engine, probes, matrix, 0, size, collectors, accepted);
+                }
+            }
+        }
+        if (collectors == null) {
+            return batchResultList;
+        }
+        for (int i = 0; i < probeNum; i++) {
+            TopKCollector collector = collectors[i];
+            collector.sortDescending();
+            for (int j = 0; j < collector.size(); j++) {
+                batchResultList.get(i).add(new CompareResult(matrix.getName(collector.getIndex(j)), collector.getScore(j)));
+            }
+        }
+        return batchResultList;
+    }
+
+    private static TopKCollector[] newCollectors(int probeNum, int k, float minScore, float acceptScore) {
+        TopKCollector[] collectors = new TopKCollector[probeNum];
+        for (int i = 0; i < probeNum; i++) {
+            collectors[i] = new TopKCollector(k, minScore, acceptScore);
+        }
+        return collectors;
+    }
+
+    /**
+     * 将人脸库分片，在线程池中并行搜索后合并结果，任一分片中某个特征找到达到acceptScore的结果时，其他分片也不再比对该特征
+     *
+     * @return 合并后的结果，失败时为null
+     */
+    private TopKCollector[] searchParallel(FaceFeature[] probes, FeatureMatrix matrix, int size, int k, float minScore, float acceptScore,
+                                           AtomicBoolean[] accepted) {
+        FaceEngine[] engines = searchEngines;
+        ExecutorService executor = searchExecutor;
+        if (engines == null || executor == null) {
             return null;
         }
+        int[] bounds = ShardedSearch.partition(size, engines.length, MIN_SHARD_SIZE);
+        List<Callable<TopKCollector[]>> shardTasks = new ArrayList<>();
+        for (int i = 0; i < bounds.length - 1; i++) {
+            shardTasks.add(new ShardSearchTask(this, engines, i, probes, matrix, bounds[i], bounds[i + 1],
+                    newCollectors(probes.length, k, minScore, acceptScore), accepted));
+        }
+        return ShardedSearch.invokeAndMerge(executor, shardTasks, newCollectors(probes.length, k, minScore, acceptScore));
+    }
+
+    /**
+     * 在人脸库的[start, end)区间内顺序搜索，每条特征数据只读取一次，调用方需保证engine没有被其他线程使用
+     *
+     * @param probes     传入的特征数据
+     * @param collectors 与probes一一对应的结果收集器
+     * @param accepted   与probes一一对应，为true时不再比对该特征
+     */
+    private static void searchRange(FaceEngine engine, FaceFeature[] probes, FeatureMatrix matrix, int start, int end,
+                                    TopKCollector[] collectors, AtomicBoolean[] accepted) {
+        //逐条拷贝到同一个临时数组中进行比对，顺序遍历连续存放的特征数据
+        byte[] tempFeatureData = new byte[FaceFeature.FEATURE_SIZE];
         FaceFeature tempFaceFeature = new FaceFeature();
         FaceSimilar faceSimilar = new FaceSimilar();
-        float maxSimilar = 0;
-        int maxSimilarIndex = -1;
-        isProcessing = true;
-        for (int i = 0; i < faceRegisterInfoList.size(); i++) {
-            tempFaceFeature.setFeatureData(faceRegisterInfoList.get(i).getFeatureData());
-            faceEngine.compareFaceFeature(faceFeature, tempFaceFeature, faceSimilar);
-            if (faceSimilar.getScore() > maxSimilar) {
-                maxSimilar = faceSimilar.getScore();
-                maxSimilarIndex = i;
-            }
-        }
-        isProcessing = false;
-        if (maxSimilarIndex != -1) {
-            return new CompareResult(faceRegisterInfoList.get(maxSimilarIndex).getName(), maxSimilar);
-        }
-        return null;
+        for (int i = start; i < end; i++) {
+            if (!matrix.isValid(i)) {
+                continue;
+            }
+            boolean featureLoaded = false;
+            for (int j = 0; j < probes.length; j++) {
+                if (accepted[j].get()) {
+                    continue;
+                }
+                if (!featureLoaded) {
+                    matrix.copyFeature(i, tempFeatureData);
+                    tempFaceFeature.setFeatureData(tempFeatureData);
+                    featureLoaded = true;
+                }
+                engine.compareFaceFeature(probes[j], tempFaceFeature, faceSimilar);
+                if (collectors[j].offer(i, faceSimilar.getScore())) {
+                    accepted[j].set(true);
+                }
+            }
+            //所有特征都已找到目标
+            if (!featureLoaded) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 单个分片的搜索任务
+     */
+    private static class ShardSearchTask implements Callable<TopKCollector[]> {
+        private FaceServer server;
+        private FaceEngine[] engines;
+        private FaceEngine engine;
+        private FaceFeature[] probes;
+        private FeatureMatrix matrix;
+        private int start;
+        private int end;
+        private TopKCollector[] collectors;
+        private AtomicBoolean[] accepted;
+
+        ShardSearchTask(FaceServer server, FaceEngine[] engines, int engineIndex, FaceFeature[] probes, FeatureMatrix matrix,
+                        int start, int end, TopKCollector[] collectors, AtomicBoolean[] accepted) {
+            this.server = server;
+            this.engines = engines;
+            this.engine = engines[engineIndex];
+            this.probes = probes;
+            this.matrix = matrix;
+            this.start = start;
+            this.end = end;
+            this.collectors = collectors;
+            this.accepted = accepted;
+        }
+
+        /**
+         * @return 结果收集器，引擎已被销毁时为null
+         */
+        @Override
+        public TopKCollector[] call() {
+            //不同的搜索请求可能同时使用同一分片引擎，加锁等待
+            synchronized (engine) {
+                //等待锁期间引擎可能已被销毁
+                if (server.searchEngines != engines) {
+                    return null;
+                }
+                searchRange(engine, probes, matrix, start, end, collectors, accepted);
+            }
+            return collectors;
+        }
     }
 
     /**
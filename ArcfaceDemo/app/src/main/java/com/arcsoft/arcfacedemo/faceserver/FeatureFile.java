@@ -0,0 +1,389 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import android.util.Log;
+
+import com.arcsoft.face.FaceFeature;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 人脸库文件，所有人脸特征保存在同一个文件中，只在末尾追加写入。
+ * <p>
+ * 文件格式：
+ * <pre>
+ * 文件头 {@link #HEADER_SIZE}字节：magic(int) version(int) featureSize(int) nameSize(int)
+ * 定长记录 {@link #RECORD_SIZE}字节：status(byte) reserved(byte) nameLength(short) name(nameSize字节) feature(featureSize字节)
+ * </pre>
+ * 删除人脸时只将记录的status置为{@link #STATUS_DELETED}（墓碑），不移动其他记录。
+ * <p>
+ * 内存中维护名字到未删除记录序号的映射，删除时只需改写匹配的记录，不必扫描整个文件。
+ * 该类不是线程安全的，且假设文件只通过同一个实例修改
+ */
+public class FeatureFile {
+    private static final String TAG = "FeatureFile";
+    private static final int MAGIC = 0x41464731;
+    private static final int VERSION = 1;
+    /**
+     * 名字的最大字节数（UTF-8）
+     */
+    public static final int NAME_SIZE = 124;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 4;
+    static final int RECORD_SIZE = RECORD_HEADER_SIZE + NAME_SIZE + FaceFeature.FEATURE_SIZE;
+    static final byte STATUS_VALID = 1;
+    static final byte STATUS_DELETED = 0;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+
+    private File file;
+    /**
+     * 名字到未删除记录序号的映射，为空时在第一次删除前扫描文件建立
+     */
+    private Map<String, List<Integer>> recordIndexes;
+
+    public FeatureFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 名字是否可以保存，UTF-8编码后不能超过{@link #NAME_SIZE}字节
+     *
+     * @param name 名字
+     * @return 是否可以保存
+     */
+    public static boolean isNameValid(String name) {
+        return name != null && name.getBytes(NAME_CHARSET).length <= NAME_SIZE;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 顺序读取整个文件，跳过已删除的记录，同时建立名字到记录序号的映射
+     *
+     * @return 人脸库，文件不存在或格式错误时返回空的人脸库
+     */
+    public HeapFeatureMatrix load() {
+        int recordCount = getRecordCount();
+        HeapFeatureMatrix matrix = new HeapFeatureMatrix(recordCount);
+        Map<String, List<Integer>> indexes = new HashMap<>();
+        if (recordCount == 0) {
+            recordIndexes = indexes;
+            return matrix;
+        }
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE));
+            if (!readHeader(dis)) {
+                return matrix;
+            }
+            byte[] nameData = new byte[NAME_SIZE];
+            byte[] feature = new byte[FaceFeature.FEATURE_SIZE];
+            for (int i = 0; i < recordCount; i++) {
+                byte status = dis.readByte();
+                dis.readByte();
+                int nameLength = dis.readShort();
+                dis.readFully(nameData);
+                dis.readFully(feature);
+                if (status == STATUS_VALID && nameLength >= 0 && nameLength <= NAME_SIZE) {
+                    String name = new String(nameData, 0, nameLength, NAME_CHARSET);
+                    matrix.add(feature, name);
+                    addRecordIndex(indexes, name, i);
+                }
+            }
+            recordIndexes = indexes;
+        } catch (EOFException e) {
+            Log.e(TAG, "load: unexpected end of file " + file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(dis);
+        }
+        return matrix;
+    }
+
+    /**
+     * 在文件末尾追加一条记录，文件不存在时会先写入文件头
+     *
+     * @param name    名字，UTF-8编码后不能超过{@link #NAME_SIZE}字节
+     * @param feature 特征数据
+     * @return 是否写入成功
+     */
+    public boolean append(String name, byte[] feature) {
+        if (name == null || feature == null || feature.length != FaceFeature.FEATURE_SIZE) {
+            return false;
+        }
+        byte[] nameData = name.getBytes(NAME_CHARSET);
+        if (nameData.length > NAME_SIZE) {
+            Log.e(TAG, "append: name is too long: " + name);
+            return false;
+        }
+        byte[] record = new byte[RECORD_SIZE];
+        record[0] = STATUS_VALID;
+        record[2] = (byte) (nameData.length >> 8);
+        record[3] = (byte) nameData.length;
+        System.arraycopy(nameData, 0, record, RECORD_HEADER_SIZE, nameData.length);
+        System.arraycopy(feature, 0, record, RECORD_HEADER_SIZE + NAME_SIZE, FaceFeature.FEATURE_SIZE);
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            if (raf.length() < HEADER_SIZE) {
+                raf.setLength(0);
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(FaceFeature.FEATURE_SIZE);
+                raf.writeInt(NAME_SIZE);
+            }
+            //丢弃异常中断时写入的不完整记录
+            long recordCount = (raf.length() - HEADER_SIZE) / RECORD_SIZE;
+            raf.seek(HEADER_SIZE + recordCount * RECORD_SIZE);
+            raf.write(record);
+            raf.setLength(raf.getFilePointer());
+            if (recordIndexes != null) {
+                addRecordIndex(recordIndexes, name, (int) recordCount);
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    /**
+     * 将指定名字的所有记录标记为已删除
+     *
+     * @param name 名字
+     * @return 删除的记录数
+     */
+    public int remove(String name) {
+        return remove(name, getRecordCount());
+    }
+
+    /**
+     * 将指定名字的记录标记为已删除，只处理前recordLimit条记录，用于保留刚追加的记录
+     *
+     * @param name        名字
+     * @param recordLimit 处理的记录数
+     * @return 删除的记录数
+     */
+    public int remove(String name, int recordLimit) {
+        if (name == null) {
+            return 0;
+        }
+        if (recordIndexes == null && !buildRecordIndexes()) {
+            return 0;
+        }
+        List<Integer> indexes = recordIndexes.get(name);
+        if (indexes == null) {
+            return 0;
+        }
+        int removedCount = 0;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            for (int i = indexes.size() - 1; i >= 0; i--) {
+                int index = indexes.get(i);
+                if (index < recordLimit) {
+                    raf.seek(HEADER_SIZE + (long) index * RECORD_SIZE);
+                    raf.writeByte(STATUS_DELETED);
+                    indexes.remove(i);
+                    removedCount++;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(raf);
+        }
+        if (indexes.isEmpty()) {
+            recordIndexes.remove(name);
+        }
+        return removedCount;
+    }
+
+    /**
+     * 查找指定名字的未删除记录，只查找前recordLimit条记录
+     *
+     * @param name        名字
+     * @param recordLimit 查找的记录数
+     * @return 记录序号，没有匹配的记录时为空数组
+     */
+    int[] findRecords(String name, int recordLimit) {
+        if (name == null || (recordIndexes == null && !buildRecordIndexes())) {
+            return new int[0];
+        }
+        List<Integer> indexes = recordIndexes.get(name);
+        if (indexes == null) {
+            return new int[0];
+        }
+        int count = 0;
+        int[] records = new int[indexes.size()];
+        for (int index : indexes) {
+            if (index < recordLimit) {
+                records[count++] = index;
+            }
+        }
+        return count == records.length ? records : Arrays.copyOf(records, count);
+    }
+
+    /**
+     * 扫描所有记录的名字，建立名字到未删除记录序号的映射
+     *
+     * @return 是否建立成功
+     */
+    private boolean buildRecordIndexes() {
+        int recordCount = getRecordCount();
+        Map<String, List<Integer>> indexes = new HashMap<>();
+        if (recordCount == 0) {
+            recordIndexes = indexes;
+            return true;
+        }
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE));
+            if (!readHeader(dis)) {
+                return false;
+            }
+            byte[] nameData = new byte[NAME_SIZE];
+            for (int i = 0; i < recordCount; i++) {
+                byte status = dis.readByte();
+                dis.readByte();
+                int nameLength = dis.readShort();
+                dis.readFully(nameData);
+                skipFully(dis, FaceFeature.FEATURE_SIZE);
+                if (status == STATUS_VALID && nameLength >= 0 && nameLength <= NAME_SIZE) {
+                    addRecordIndex(indexes, new String(nameData, 0, nameLength, NAME_CHARSET), i);
+                }
+            }
+            recordIndexes = indexes;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            closeQuietly(dis);
+        }
+    }
+
+    private static void addRecordIndex(Map<String, List<Integer>> indexes, String name, int index) {
+        List<Integer> nameIndexes = indexes.get(name);
+        if (nameIndexes == null) {
+            //绝大多数名字只有一条记录
+            nameIndexes = new ArrayList<>(1);
+            indexes.put(name, nameIndexes);
+        }
+        nameIndexes.add(index);
+    }
+
+    /**
+     * 统计未删除的记录数
+     */
+    public int countValid() {
+        int recordCount = getRecordCount();
+        if (recordCount == 0) {
+            return 0;
+        }
+        int validCount = 0;
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE));
+            if (!readHeader(dis)) {
+                return 0;
+            }
+            for (int i = 0; i < recordCount; i++) {
+                if (dis.readByte() == STATUS_VALID) {
+                    validCount++;
+                }
+                skipFully(dis, RECORD_SIZE - 1);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(dis);
+        }
+        return validCount;
+    }
+
+    /**
+     * 删除文件
+     *
+     * @return 是否删除成功
+     */
+    public boolean clear() {
+        boolean success = !file.exists() || file.delete();
+        recordIndexes = success ? new HashMap<String, List<Integer>>() : null;
+        return success;
+    }
+
+    /**
+     * @return 文件中的完整记录数（包括已删除的记录）
+     */
+    int getRecordCount() {
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            return 0;
+        }
+        return (int) ((file.length() - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    private boolean readHeader(DataInputStream dis) throws IOException {
+        int magic = dis.readInt();
+        int version = dis.readInt();
+        int featureSize = dis.readInt();
+        int nameSize = dis.readInt();
+        if (magic != MAGIC || version != VERSION || featureSize != FaceFeature.FEATURE_SIZE || nameSize != NAME_SIZE) {
+            Log.e(TAG, "readHeader: unsupported file " + file);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 校验内存映射后的文件头
+     */
+    static boolean isHeaderValid(ByteBuffer buffer) {
+        return buffer.capacity() >= HEADER_SIZE
+                && buffer.getInt(0) == MAGIC
+                && buffer.getInt(4) == VERSION
+                && buffer.getInt(8) == FaceFeature.FEATURE_SIZE
+                && buffer.getInt(12) == NAME_SIZE;
+    }
+
+    private static void skipFully(DataInputStream dis, int length) throws IOException {
+        int skipped = 0;
+        while (skipped < length) {
+            int n = dis.skipBytes(length - skipped);
+            if (n <= 0) {
+                throw new EOFException();
+            }
+            skipped += n;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
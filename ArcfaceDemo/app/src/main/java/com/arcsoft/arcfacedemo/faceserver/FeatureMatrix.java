@@ -0,0 +1,30 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import com.arcsoft.face.FaceFeature;
+
+/**
+ * 人脸库中特征数据的只读访问接口，人脸按下标[0, size)顺序排列，实现类需支持多线程同时读取
+ *
+ * @see HeapFeatureMatrix
+ * @see MappedFeatureMatrix
+ */
+public abstract class FeatureMatrix {
+
+    /**
+     * 将指定下标的特征数据拷贝到传入的数组中
+     *
+     * @param index 下标
+     * @param dst   目标数组，长度需不小于{@link FaceFeature#FEATURE_SIZE}
+     */
+    public abstract void copyFeature(int index, byte[] dst);
+
+    public abstract String getName(int index);
+
+    /**
+     * @param index 下标
+     * @return 该下标的人脸是否有效，已删除的人脸需在搜索时跳过
+     */
+    public abstract boolean isValid(int index);
+
+    public abstract int size();
+}
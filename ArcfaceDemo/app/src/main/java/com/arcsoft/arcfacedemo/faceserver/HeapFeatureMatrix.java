@@ -0,0 +1,153 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import com.arcsoft.face.FaceFeature;
+
+/**
+ * 保存在堆内存中的人脸库，所有特征数据首尾相接存放于同一个byte数组中，名字存放于平行的名字表中，
+ * 搜索时按下标顺序遍历即可，避免每个人脸一个对象带来的内存碎片和GC压力。
+ * <p>
+ * 发布后的实例是不可变的快照：{@link #plus}和{@link #minus}返回新的快照，原快照的内容不变，
+ * 因此搜索线程无需加锁即可读取。新增人脸时若数组仍有空间，新快照和原快照共用同一个数组，
+ * 原快照只读取[0, size)范围内的数据，不受末尾追加的影响
+ */
+public class HeapFeatureMatrix extends FeatureMatrix {
+    /**
+     * 初始容量
+     */
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private Storage storage;
+    private int size;
+
+    /**
+     * 多个快照共用的数组
+     */
+    private static class Storage {
+        private byte[] featureData;
+        private String[] names;
+        /**
+         * 已写入数据的长度，只有size和该值相等的快照（即最新的快照）才能在末尾追加
+         */
+        private int usedSize;
+
+        Storage(int capacity) {
+            featureData = new byte[capacity * FaceFeature.FEATURE_SIZE];
+            names = new String[capacity];
+            usedSize = 0;
+        }
+    }
+
+    public HeapFeatureMatrix() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public HeapFeatureMatrix(int capacity) {
+        this(new Storage(capacity <= 0 ? DEFAULT_CAPACITY : capacity), 0);
+    }
+
+    private HeapFeatureMatrix(Storage storage, int size) {
+        this.storage = storage;
+        this.size = size;
+    }
+
+    /**
+     * 在末尾添加一条特征数据，会修改当前实例，只能在发布给其他线程之前使用
+     *
+     * @param feature 特征数据，长度需为{@link FaceFeature#FEATURE_SIZE}
+     * @param name    特征对应的名字
+     * @return 是否添加成功
+     */
+    boolean add(byte[] feature, String name) {
+        HeapFeatureMatrix matrix = plus(feature, name);
+        if (matrix == this) {
+            return false;
+        }
+        storage = matrix.storage;
+        size = matrix.size;
+        return true;
+    }
+
+    /**
+     * 在末尾添加一条特征数据
+     *
+     * @param feature 特征数据，长度需为{@link FaceFeature#FEATURE_SIZE}
+     * @param name    特征对应的名字
+     * @return 新的快照，参数错误时返回当前快照
+     */
+    public HeapFeatureMatrix plus(byte[] feature, String name) {
+        if (feature == null || feature.length != FaceFeature.FEATURE_SIZE) {
+            return this;
+        }
+        synchronized (storage) {
+            Storage target = storage;
+            //当前快照不是最新的或者数组已满，拷贝到新的数组中
+            if (storage.usedSize != size || size == storage.names.length) {
+                target = copyOf(size * 2);
+            }
+            System.arraycopy(feature, 0, target.featureData, size * FaceFeature.FEATURE_SIZE, FaceFeature.FEATURE_SIZE);
+            target.names[size] = name;
+            target.usedSize = size + 1;
+            return new HeapFeatureMatrix(target, size + 1);
+        }
+    }
+
+    /**
+     * 删除指定名字的所有特征数据，其后的数据依次前移
+     *
+     * @param name 名字
+     * @return 新的快照，没有需要删除的数据时返回当前快照
+     */
+    public HeapFeatureMatrix minus(String name) {
+        if (name == null || indexOf(name) < 0) {
+            return this;
+        }
+        Storage target = new Storage(Math.max(storage.names.length, DEFAULT_CAPACITY));
+        int newSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (name.equals(storage.names[i])) {
+                continue;
+            }
+            System.arraycopy(storage.featureData, i * FaceFeature.FEATURE_SIZE, target.featureData, newSize * FaceFeature.FEATURE_SIZE, FaceFeature.FEATURE_SIZE);
+            target.names[newSize] = storage.names[i];
+            newSize++;
+        }
+        target.usedSize = newSize;
+        return new HeapFeatureMatrix(target, newSize);
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < size; i++) {
+            if (name.equals(storage.names[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void copyFeature(int index, byte[] dst) {
+        System.arraycopy(storage.featureData, index * FaceFeature.FEATURE_SIZE, dst, 0, FaceFeature.FEATURE_SIZE);
+    }
+
+    @Override
+    public String getName(int index) {
+        return storage.names[index];
+    }
+
+    @Override
+    public boolean isValid(int index) {
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private Storage copyOf(int capacity) {
+        Storage target = new Storage(Math.max(capacity, DEFAULT_CAPACITY));
+        System.arraycopy(storage.featureData, 0, target.featureData, 0, size * FaceFeature.FEATURE_SIZE);
+        System.arraycopy(storage.names, 0, target.names, 0, size);
+        return target;
+    }
+}
@@ -0,0 +1,10 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+public interface InitListener {
+    /**
+     * 异步初始化结束时执行，在子线程中回调
+     *
+     * @param success 是否初始化成功
+     */
+    void onInitFinished(boolean success);
+}
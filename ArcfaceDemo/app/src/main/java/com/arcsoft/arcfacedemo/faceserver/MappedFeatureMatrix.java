@@ -0,0 +1,234 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import com.arcsoft.face.FaceFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+
+/**
+ * 通过内存映射访问{@link FeatureFile}的人脸库，初始化时不读取任何特征数据，由系统在访问时按需调页，
+ * 堆内存占用不随人脸库大小增长。下标即文件中的记录序号，已删除的记录通过{@link #isValid(int)}跳过。
+ * <p>
+ * 文件末尾追加记录后通过{@link #extend(File)}只映射新增的部分，每次映射的区域为一个分段；
+ * 分段数超过{@link #MAX_SEGMENT_COUNT}时重新映射整个文件。
+ * <p>
+ * 每个实例都是不变的快照：删除记录前需先通过{@link #minus(int[])}生成新的快照，再修改文件中的status，
+ * 已有快照中这些记录依然有效。同一次{@link #map(File)}派生出的快照共享{@link Tombstones}，
+ * 记录其间删除的所有记录，用于区分文件中的status是在快照生成前还是生成后修改的
+ */
+public class MappedFeatureMatrix extends FeatureMatrix {
+    private static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+    /**
+     * 最大分段数
+     */
+    private static final int MAX_SEGMENT_COUNT = 16;
+
+    private MappedByteBuffer[] buffers;
+    /**
+     * 每个分段第一条记录的下标
+     */
+    private int[] segmentStarts;
+    /**
+     * 每个分段第一条记录在映射区域中的偏移，第一个分段包含文件头
+     */
+    private int[] segmentOffsets;
+    private int size;
+    /**
+     * 本快照生成时已通过{@link #minus(int[])}删除的记录，不可修改
+     */
+    private BitSet removed;
+    private Tombstones tombstones;
+    /**
+     * ByteBuffer的position不是线程安全的，每个线程使用各自的视图读取
+     */
+    private ThreadLocal<ByteBuffer[]> localViews = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            ByteBuffer[] views = new ByteBuffer[buffers.length];
+            for (int i = 0; i < buffers.length; i++) {
+                views[i] = buffers[i].duplicate();
+            }
+            return views;
+        }
+    };
+
+    private MappedFeatureMatrix(MappedByteBuffer[] buffers, int[] segmentStarts, int[] segmentOffsets, int size,
+                                BitSet removed, Tombstones tombstones) {
+        this.buffers = buffers;
+        this.segmentStarts = segmentStarts;
+        this.segmentOffsets = segmentOffsets;
+        this.size = size;
+        this.removed = removed;
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * 映射人脸库文件中当前所有完整的记录，之后追加的记录需通过{@link #extend(File)}映射才可见
+     *
+     * @param file 人脸库文件
+     * @return 人脸库，文件不存在时为空的人脸库
+     * @throws IOException 映射失败
+     */
+    static MappedFeatureMatrix map(File file) throws IOException {
+        return map(file, new BitSet(), new Tombstones());
+    }
+
+    private static MappedFeatureMatrix map(File file, BitSet removed, Tombstones tombstones) throws IOException {
+        if (!file.exists() || file.length() < FeatureFile.HEADER_SIZE) {
+            return new MappedFeatureMatrix(new MappedByteBuffer[0], new int[0], new int[0], 0, removed, tombstones);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            int recordCount = (int) ((raf.length() - FeatureFile.HEADER_SIZE) / FeatureFile.RECORD_SIZE);
+            long mapLength = FeatureFile.HEADER_SIZE + (long) recordCount * FeatureFile.RECORD_SIZE;
+            //映射在channel关闭后依然有效
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mapLength);
+            if (!FeatureFile.isHeaderValid(buffer)) {
+                throw new IOException("unsupported feature file " + file);
+            }
+            return new MappedFeatureMatrix(new MappedByteBuffer[]{buffer}, new int[]{0}, new int[]{FeatureFile.HEADER_SIZE}, recordCount,
+                    removed, tombstones);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 只映射当前快照之后追加的记录，返回包含所有记录的新快照，当前快照不变
+     *
+     * @param file 人脸库文件，需与当前快照为同一文件且只在末尾追加过
+     * @return 新的快照，没有新增记录时返回当前快照
+     * @throws IOException 映射失败
+     */
+    MappedFeatureMatrix extend(File file) throws IOException {
+        if (buffers.length == 0 || buffers.length >= MAX_SEGMENT_COUNT) {
+            //重新映射后下标不变，继续沿用之前的删除记录
+            return map(file, removed, tombstones);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            int recordCount = (int) ((raf.length() - FeatureFile.HEADER_SIZE) / FeatureFile.RECORD_SIZE);
+            if (recordCount <= size) {
+                return this;
+            }
+            long position = FeatureFile.HEADER_SIZE + (long) size * FeatureFile.RECORD_SIZE;
+            long mapLength = (long) (recordCount - size) * FeatureFile.RECORD_SIZE;
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, position, mapLength);
+            int segmentCount = buffers.length;
+            MappedByteBuffer[] newBuffers = new MappedByteBuffer[segmentCount + 1];
+            int[] newSegmentStarts = new int[segmentCount + 1];
+            int[] newSegmentOffsets = new int[segmentCount + 1];
+            System.arraycopy(buffers, 0, newBuffers, 0, segmentCount);
+            System.arraycopy(segmentStarts, 0, newSegmentStarts, 0, segmentCount);
+            System.arraycopy(segmentOffsets, 0, newSegmentOffsets, 0, segmentCount);
+            newBuffers[segmentCount] = buffer;
+            newSegmentStarts[segmentCount] = size;
+            newSegmentOffsets[segmentCount] = 0;
+            return new MappedFeatureMatrix(newBuffers, newSegmentStarts, newSegmentOffsets, recordCount, removed, tombstones);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 生成删除了指定记录的新快照，当前快照不变，之后才能修改文件中这些记录的status
+     *
+     * @param indexes 删除的记录序号
+     * @return 新的快照，indexes为空时返回当前快照
+     */
+    MappedFeatureMatrix minus(int[] indexes) {
+        if (indexes.length == 0) {
+            return this;
+        }
+        return new MappedFeatureMatrix(buffers, segmentStarts, segmentOffsets, size, tombstones.add(removed, indexes), tombstones);
+    }
+
+    @Override
+    public void copyFeature(int index, byte[] dst) {
+        int segment = segmentOf(index);
+        ByteBuffer view = localViews.get()[segment];
+        view.position(recordOffset(segment, index) + FeatureFile.RECORD_HEADER_SIZE + FeatureFile.NAME_SIZE);
+        view.get(dst, 0, FaceFeature.FEATURE_SIZE);
+    }
+
+    @Override
+    public String getName(int index) {
+        int segment = segmentOf(index);
+        ByteBuffer view = localViews.get()[segment];
+        int offset = recordOffset(segment, index);
+        int nameLength = ((view.get(offset + 2) & 0xFF) << 8) | (view.get(offset + 3) & 0xFF);
+        if (nameLength > FeatureFile.NAME_SIZE) {
+            return null;
+        }
+        byte[] nameData = new byte[nameLength];
+        view.position(offset + FeatureFile.RECORD_HEADER_SIZE);
+        view.get(nameData);
+        return new String(nameData, NAME_CHARSET);
+    }
+
+    @Override
+    public boolean isValid(int index) {
+        if (removed.get(index)) {
+            return false;
+        }
+        int segment = segmentOf(index);
+        //文件中已删除，但是在本快照生成之后才删除的记录，在本快照中依然有效
+        return buffers[segment].get(recordOffset(segment, index)) == FeatureFile.STATUS_VALID
+                || tombstones.removed.get(index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 二分查找下标所在的分段
+     */
+    private int segmentOf(int index) {
+        int low = 0;
+        int high = segmentStarts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segmentStarts[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private int recordOffset(int segment, int index) {
+        return segmentOffsets[segment] + (index - segmentStarts[segment]) * FeatureFile.RECORD_SIZE;
+    }
+
+    /**
+     * 同一文件派生出的所有快照中通过{@link #minus(int[])}删除的记录，写时复制，每次删除生成新的BitSet
+     */
+    private static class Tombstones {
+        private volatile BitSet removed = new BitSet();
+
+        /**
+         * @param snapshotRemoved 快照中已删除的记录
+         * @param indexes         新删除的记录序号
+         * @return 新快照中已删除的记录
+         */
+        synchronized BitSet add(BitSet snapshotRemoved, int[] indexes) {
+            BitSet newRemoved = (BitSet) removed.clone();
+            BitSet newSnapshotRemoved = (BitSet) snapshotRemoved.clone();
+            for (int index : indexes) {
+                newRemoved.set(index);
+                newSnapshotRemoved.set(index);
+            }
+            removed = newRemoved;
+            return newSnapshotRemoved;
+        }
+    }
+}
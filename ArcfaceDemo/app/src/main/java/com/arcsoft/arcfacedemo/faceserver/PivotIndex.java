@@ -0,0 +1,152 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import com.arcsoft.face.FaceEngine;
+import com.arcsoft.face.FaceFeature;
+import com.arcsoft.face.FaceSimilar;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 人脸库的近似搜索索引（倒排聚类）。
+ * <p>
+ * 特征数据的格式对外不公开，只能通过{@link FaceEngine#compareFaceFeature}计算相似度，因此以人脸库中的部分人脸作为聚类中心，
+ * 每个人脸归入与其最相似的聚类中心的列表中。聚类中心数量保持在人脸数的平方根左右，新注册的人脸可增量加入。
+ * 搜索时先与所有聚类中心比对，再对最相似的若干个聚类中的人脸逐一精确比对。
+ * <p>
+ * 聚类中心不是真正的质心，而是按加入顺序选出的人脸：聚类中心数量需要增加时，下一个加入的人脸直接成为聚类中心，
+ * 之后不再调整。因此召回率与人脸的加入顺序有关，若相似的人脸集中连续加入（例如同一批次导入），聚类会不均衡，
+ * 需要增大精确比对的聚类数量才能达到相同的召回率。
+ * <p>
+ * 该类不是线程安全的，调用方需保证同一时间只有一个线程使用，传入的engine也不能被其他线程同时使用
+ */
+class PivotIndex {
+    private static final int DEFAULT_LIST_CAPACITY = 16;
+
+    /**
+     * 聚类中心在人脸库中的下标
+     */
+    private int[] pivots = new int[DEFAULT_LIST_CAPACITY];
+    private int pivotCount;
+    /**
+     * 每个聚类包含的人脸在人脸库中的下标
+     */
+    private int[][] members = new int[DEFAULT_LIST_CAPACITY][];
+    private int[] memberCounts = new int[DEFAULT_LIST_CAPACITY];
+    /**
+     * 已加入索引的人脸数，人脸库中[0, size)的人脸均已加入
+     */
+    private int size;
+
+    private byte[] entryFeatureData = new byte[FaceFeature.FEATURE_SIZE];
+    private byte[] tempFeatureData = new byte[FaceFeature.FEATURE_SIZE];
+    private FaceFeature entryFeature = new FaceFeature();
+    private FaceFeature tempFaceFeature = new FaceFeature();
+    private FaceSimilar faceSimilar = new FaceSimilar();
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 将人脸库中下标为{@link #size}的人脸加入索引
+     *
+     * @param engine 用于比对的引擎
+     * @param matrix 人脸库
+     */
+    void addNext(FaceEngine engine, FeatureMatrix matrix) {
+        int index = size;
+        int targetPivotCount = (int) Math.ceil(Math.sqrt(size + 1));
+        if (pivotCount < targetPivotCount) {
+            addPivot(index);
+        } else {
+            matrix.copyFeature(index, entryFeatureData);
+            entryFeature.setFeatureData(entryFeatureData);
+            int bestPivot = 0;
+            float bestScore = -1;
+            for (int i = 0; i < pivotCount; i++) {
+                float score = compare(engine, matrix, entryFeature, pivots[i]);
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestPivot = i;
+                }
+            }
+            addMember(bestPivot, index);
+        }
+        size++;
+    }
+
+    /**
+     * 在索引中搜索
+     *
+     * @param engine      用于比对的引擎
+     * @param matrix      人脸库
+     * @param faceFeature 传入特征数据
+     * @param probeNum    精确比对的聚类数量，越大召回率越高，耗时也越长
+     * @param collector   结果收集器
+     * @param accepted    是否已找到达到acceptScore的结果，为true时结束搜索
+     */
+    void search(FaceEngine engine, FeatureMatrix matrix, FaceFeature faceFeature, int probeNum,
+                TopKCollector collector, AtomicBoolean accepted) {
+        if (pivotCount == 0) {
+            return;
+        }
+        //1.与所有聚类中心比对，选出最相似的probeNum个聚类
+        TopKCollector pivotCollector = new TopKCollector(Math.min(probeNum, pivotCount), -1, Float.MAX_VALUE);
+        for (int i = 0; i < pivotCount; i++) {
+            pivotCollector.offer(i, compare(engine, matrix, faceFeature, pivots[i]));
+        }
+        pivotCollector.sortDescending();
+        //2.对选中聚类中的所有人脸精确比对
+        for (int i = 0; i < pivotCollector.size() && !accepted.get(); i++) {
+            int pivot = pivotCollector.getIndex(i);
+            int[] memberList = members[pivot];
+            int memberCount = memberCounts[pivot];
+            for (int j = 0; j < memberCount && !accepted.get(); j++) {
+                if (!matrix.isValid(memberList[j])) {
+                    continue;
+                }
+                if (collector.offer(memberList[j], compare(engine, matrix, faceFeature, memberList[j]))) {
+                    accepted.set(true);
+                }
+            }
+        }
+    }
+
+    private float compare(FaceEngine engine, FeatureMatrix matrix, FaceFeature faceFeature, int index) {
+        matrix.copyFeature(index, tempFeatureData);
+        tempFaceFeature.setFeatureData(tempFeatureData);
+        engine.compareFaceFeature(faceFeature, tempFaceFeature, faceSimilar);
+        return faceSimilar.getScore();
+    }
+
+    private void addPivot(int index) {
+        if (pivotCount == pivots.length) {
+            int newCapacity = pivots.length * 2;
+            int[] newPivots = new int[newCapacity];
+            System.arraycopy(pivots, 0, newPivots, 0, pivotCount);
+            pivots = newPivots;
+            int[][] newMembers = new int[newCapacity][];
+            System.arraycopy(members, 0, newMembers, 0, pivotCount);
+            members = newMembers;
+            int[] newMemberCounts = new int[newCapacity];
+            System.arraycopy(memberCounts, 0, newMemberCounts, 0, pivotCount);
+            memberCounts = newMemberCounts;
+        }
+        pivots[pivotCount] = index;
+        members[pivotCount] = new int[DEFAULT_LIST_CAPACITY];
+        memberCounts[pivotCount] = 0;
+        addMember(pivotCount, index);
+        pivotCount++;
+    }
+
+    private void addMember(int pivot, int index) {
+        int[] memberList = members[pivot];
+        if (memberCounts[pivot] == memberList.length) {
+            int[] newMemberList = new int[memberList.length * 2];
+            System.arraycopy(memberList, 0, newMemberList, 0, memberCounts[pivot]);
+            members[pivot] = newMemberList;
+            memberList = newMemberList;
+        }
+        memberList[memberCounts[pivot]++] = index;
+    }
+}
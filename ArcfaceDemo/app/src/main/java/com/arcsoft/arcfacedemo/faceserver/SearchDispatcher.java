@@ -0,0 +1,187 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import android.util.Log;
+
+import com.arcsoft.face.FaceFeature;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 搜索请求调度器，将一小段时间内到达的搜索请求合并为一批，通过{@link FaceServer#searchBatch}只遍历一次人脸库，
+ * 结果按请求码分别通过{@link SearchListener}回传。多人同时进入画面时，避免每个人脸各自完整遍历一次人脸库
+ */
+public class SearchDispatcher {
+    private static final String TAG = "SearchDispatcher";
+
+    /**
+     * 收集一批请求的最长等待时间，从该批第一个请求到达时开始计算
+     */
+    private long batchWindow = 20;
+    /**
+     * 每批最多的请求数
+     */
+    private int maxBatchSize = 10;
+    /**
+     * 相似度达到该值时不再继续比对该请求
+     */
+    private float acceptScore = Float.MAX_VALUE;
+    private SearchListener searchListener;
+    private LinkedBlockingQueue<SearchRequest> searchRequests = new LinkedBlockingQueue<>();
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private SearchDispatcher(Builder builder) {
+        if (builder.batchWindow >= 0) {
+            batchWindow = builder.batchWindow;
+        }
+        if (builder.maxBatchSize > 0) {
+            maxBatchSize = builder.maxBatchSize;
+        } else {
+            Log.e(TAG, "maxBatchSize must > 0,now using default value:" + maxBatchSize);
+        }
+        if (builder.acceptScore > 0) {
+            acceptScore = builder.acceptScore;
+        }
+        searchListener = builder.searchListener;
+        executor.execute(new DispatchRunnable());
+    }
+
+    /**
+     * 提交搜索请求
+     *
+     * @param faceFeature 特征数据
+     * @param requestId   请求码，一般使用trackId
+     */
+    public void requestSearch(FaceFeature faceFeature, Integer requestId) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        searchRequests.offer(new SearchRequest(faceFeature, requestId));
+    }
+
+    public void release() {
+        if (!executor.isShutdown()) {
+            executor.shutdownNow();
+        }
+        searchRequests.clear();
+        searchListener = null;
+    }
+
+    private static class SearchRequest {
+        private FaceFeature faceFeature;
+        private Integer requestId;
+
+        SearchRequest(FaceFeature faceFeature, Integer requestId) {
+            this.faceFeature = faceFeature;
+            this.requestId = requestId;
+        }
+    }
+
+    /**
+     * 调度线程，收集一批请求后执行批量搜索
+     */
+    private class DispatchRunnable implements Runnable {
+        @Override
+        public void run() {
+            List<SearchRequest> batch = new ArrayList<>();
+            List<FaceFeature> faceFeatureList = new ArrayList<>();
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    batch.clear();
+                    faceFeatureList.clear();
+                    //1.等待第一个请求
+                    batch.add(searchRequests.take());
+                    //2.在时间窗口内继续收集，直到达到最大数量
+                    long deadline = System.currentTimeMillis() + batchWindow;
+                    while (batch.size() < maxBatchSize) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        SearchRequest request = remaining > 0 ? searchRequests.poll(remaining, TimeUnit.MILLISECONDS) : searchRequests.poll();
+                        if (request == null) {
+                            break;
+                        }
+                        batch.add(request);
+                    }
+                    //3.批量搜索并分别回传，异常只影响当前批次，调度线程继续运行
+                    int answeredCount = 0;
+                    try {
+                        for (SearchRequest request : batch) {
+                            faceFeatureList.add(request.faceFeature);
+                        }
+                        List<List<CompareResult>> batchResultList = FaceServer.getInstance().searchBatch(faceFeatureList, 1, 0, acceptScore);
+                        for (; answeredCount < batch.size(); answeredCount++) {
+                            SearchListener listener = searchListener;
+                            if (listener == null) {
+                                break;
+                            }
+                            List<CompareResult> compareResultList = batchResultList.get(answeredCount);
+                            listener.onSearchResult(compareResultList.size() == 0 ? null : compareResultList.get(0), batch.get(answeredCount).requestId);
+                        }
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "run: search batch failed, size = " + batch.size(), e);
+                        notifyFailed(batch, answeredCount);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Log.i(TAG, "run: dispatcher released");
+            }
+        }
+    }
+
+    /**
+     * 搜索失败时，尚未成功回传结果的请求均回传null
+     *
+     * @param batch     当前批次的请求
+     * @param fromIndex 第一个尚未成功回传结果的请求
+     */
+    private void notifyFailed(List<SearchRequest> batch, int fromIndex) {
+        for (int i = fromIndex; i < batch.size(); i++) {
+            SearchListener listener = searchListener;
+            if (listener == null) {
+                return;
+            }
+            try {
+                listener.onSearchResult(null, batch.get(i).requestId);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "notifyFailed: requestId = " + batch.get(i).requestId, e);
+            }
+        }
+    }
+
+    public static final class Builder {
+        private long batchWindow = -1;
+        private int maxBatchSize;
+        private float acceptScore;
+        private SearchListener searchListener;
+
+        public Builder() {
+        }
+
+        public Builder batchWindow(long val) {
+            batchWindow = val;
+            return this;
+        }
+
+        public Builder maxBatchSize(int val) {
+            maxBatchSize = val;
+            return this;
+        }
+
+        public Builder acceptScore(float val) {
+            acceptScore = val;
+            return this;
+        }
+
+        public Builder searchListener(SearchListener val) {
+            searchListener = val;
+            return this;
+        }
+
+        public SearchDispatcher build() {
+            return new SearchDispatcher(this);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import android.support.annotation.Nullable;
+
+public interface SearchListener {
+    /**
+     * 搜索结束后的回调，在{@link SearchDispatcher}的搜索线程中执行
+     *
+     * @param compareResult 相似度最高的比对结果，人脸库为空或搜索失败时为null
+     * @param requestId     请求码，一般为trackId
+     */
+    void onSearchResult(@Nullable CompareResult compareResult, Integer requestId);
+}
@@ -0,0 +1,72 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 分片搜索中与比对引擎无关的部分：人脸库的分片划分和各分片结果的合并
+ */
+final class ShardedSearch {
+
+    private ShardedSearch() {
+    }
+
+    /**
+     * 将[0, size)划分为连续的分片，分片数不超过maxShardNum，且除最后一个分片外每个分片不少于minShardSize条
+     *
+     * @param size         人脸库大小
+     * @param maxShardNum  最大分片数，一般为分片引擎数
+     * @param minShardSize 每个分片的最小记录数
+     * @return 分片边界，第i个分片为[bounds[i], bounds[i + 1])，最后一个元素为size
+     */
+    static int[] partition(int size, int maxShardNum, int minShardSize) {
+        int shardNum = Math.max(1, Math.min(maxShardNum, size / minShardSize));
+        int shardSize = (size + shardNum - 1) / shardNum;
+        //向上取整后最后几个分片可能为空，去掉空分片
+        shardNum = Math.max(1, (size + shardSize - 1) / shardSize);
+        int[] bounds = new int[shardNum + 1];
+        for (int i = 0; i < shardNum; i++) {
+            bounds[i] = i * shardSize;
+        }
+        bounds[shardNum] = size;
+        return bounds;
+    }
+
+    /**
+     * 在线程池中执行所有分片任务，并将各分片的结果合并到collectors中
+     *
+     * @param executor   线程池
+     * @param shardTasks 分片任务，返回与collectors一一对应的结果收集器，无法完成时返回null
+     * @param collectors 合并结果的收集器
+     * @return collectors，任一分片返回null或抛出异常、线程池已关闭、当前线程被中断时为null
+     */
+    static TopKCollector[] invokeAndMerge(ExecutorService executor, List<? extends Callable<TopKCollector[]>> shardTasks,
+                                          TopKCollector[] collectors) {
+        try {
+            List<Future<TopKCollector[]>> futures = executor.invokeAll(shardTasks);
+            for (Future<TopKCollector[]> future : futures) {
+                TopKCollector[] shardCollectors = future.get();
+                if (shardCollectors == null) {
+                    return null;
+                }
+                for (int i = 0; i < collectors.length; i++) {
+                    collectors[i].merge(shardCollectors[i]);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return null;
+        } catch (RejectedExecutionException e) {
+            //线程池已随引擎一起销毁
+            return null;
+        }
+        return collectors;
+    }
+}
@@ -0,0 +1,126 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+/**
+ * 搜索结果收集器，使用基于数组的定长小顶堆保存相似度最高的K个结果，堆顶为当前K个结果中相似度最低的一个
+ */
+class TopKCollector {
+    private int k;
+    private float minScore;
+    private float acceptScore;
+    private int[] indexes;
+    private float[] scores;
+    private int size;
+
+    /**
+     * @param k           最多保留的结果数
+     * @param minScore    相似度需高于该值才会被保留
+     * @param acceptScore 相似度达到该值时认为已找到目标，可提前结束搜索
+     */
+    TopKCollector(int k, float minScore, float acceptScore) {
+        this.k = k;
+        this.minScore = minScore;
+        this.acceptScore = acceptScore;
+        indexes = new int[k];
+        scores = new float[k];
+        size = 0;
+    }
+
+    /**
+     * 提交一个比对结果
+     *
+     * @param index 人脸库中的下标
+     * @param score 相似度
+     * @return 相似度是否达到{@link #acceptScore}
+     */
+    boolean offer(int index, float score) {
+        if (score > minScore) {
+            if (size < k) {
+                indexes[size] = index;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (score > scores[0]) {
+                indexes[0] = index;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+        return score >= acceptScore;
+    }
+
+    /**
+     * 合并另一个收集器中的结果
+     */
+    void merge(TopKCollector other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.indexes[i], other.scores[i]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 将结果按相似度从高到低排列，排列后不可再提交结果
+     */
+    void sortDescending() {
+        //堆排序：依次将堆顶（最小值）交换到末尾
+        int heapSize = size;
+        while (heapSize > 1) {
+            heapSize--;
+            swap(0, heapSize);
+            siftDown(0, heapSize);
+        }
+    }
+
+    int getIndex(int i) {
+        return indexes[i];
+    }
+
+    float getScore(int i) {
+        return scores[i];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (scores[i] >= scores[parent]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        siftDown(i, size);
+    }
+
+    private void siftDown(int i, int heapSize) {
+        while (true) {
+            int left = (i << 1) + 1;
+            if (left >= heapSize) {
+                break;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if (right < heapSize && scores[right] < scores[left]) {
+                smallest = right;
+            }
+            if (scores[i] <= scores[smallest]) {
+                break;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int tempIndex = indexes[i];
+        indexes[i] = indexes[j];
+        indexes[j] = tempIndex;
+        float tempScore = scores[i];
+        scores[i] = scores[j];
+        scores[j] = tempScore;
+    }
+}
@@ -22,6 +22,9 @@ public class FacePreviewInfo {
         this.faceInfo = faceInfo;
     }
 
+    /**
+     * @return 活体结果，未进行活体检测时为null
+     */
     public LivenessInfo getLivenessInfo() {
         return livenessInfo;
     }
@@ -185,5 +185,154 @@ public class ImageUtil {
         return bitmap;
     }
 
+    /**
+     * 将感兴趣区域限制在图像范围内，并对齐为可以直接传给引擎的NV21区域：左上角为偶数，宽度为4的倍数，高度为2的倍数
+     *
+     * @param roi    感兴趣区域
+     * @param width  图像宽度
+     * @param height 图像高度
+     * @return 对齐后的区域，为空时返回null
+     */
+    public static Rect alignNv21Roi(Rect roi, int width, int height) {
+        if (roi == null) {
+            return null;
+        }
+        int left = Math.max(0, roi.left) & ~VALUE_FOR_2_ALIGN;
+        int top = Math.max(0, roi.top) & ~VALUE_FOR_2_ALIGN;
+        int roiWidth = (Math.min(width, roi.right) - left) & ~VALUE_FOR_4_ALIGN;
+        int roiHeight = (Math.min(height, roi.bottom) - top) & ~VALUE_FOR_2_ALIGN;
+        if (roiWidth <= 0 || roiHeight <= 0) {
+            return null;
+        }
+        return new Rect(left, top, left + roiWidth, top + roiHeight);
+    }
+
+    /**
+     * 从NV21数据中裁剪出指定区域
+     *
+     * @param src    原图NV21数据
+     * @param width  原图宽度
+     * @param height 原图高度
+     * @param roi    裁剪区域，需先经过{@link #alignNv21Roi}对齐
+     * @param dst    裁剪后的NV21数据，长度不小于区域宽*高*3/2
+     */
+    public static void cropNv21(byte[] src, int width, int height, Rect roi, byte[] dst) {
+        int roiWidth = roi.width();
+        int roiHeight = roi.height();
+        //Y分量逐行拷贝
+        int dstIndex = 0;
+        for (int row = roi.top; row < roi.bottom; row++) {
+            System.arraycopy(src, row * width + roi.left, dst, dstIndex, roiWidth);
+            dstIndex += roiWidth;
+        }
+        //VU分量，每两行Y对应一行VU，左上角为偶数因此VU对不会被拆开
+        int srcUvStart = width * height;
+        for (int row = roi.top / 2; row < roi.top / 2 + roiHeight / 2; row++) {
+            System.arraycopy(src, srcUvStart + row * width + roi.left, dst, dstIndex, roiWidth);
+            dstIndex += roiWidth;
+        }
+    }
+
+    /**
+     * 获取缩小后的NV21宽度，保证为4的倍数
+     *
+     * @param width  原图宽度
+     * @param factor 缩小倍数
+     * @return 缩小后的宽度
+     */
+    public static int getScaledNv21Width(int width, int factor) {
+        return (width / factor) & ~VALUE_FOR_4_ALIGN;
+    }
+
+    /**
+     * 获取缩小后的NV21高度，保证为2的倍数
+     *
+     * @param height 原图高度
+     * @param factor 缩小倍数
+     * @return 缩小后的高度
+     */
+    public static int getScaledNv21Height(int height, int factor) {
+        return (height / factor) & ~VALUE_FOR_2_ALIGN;
+    }
 
+    /**
+     * 使用均值滤波将NV21数据缩小为原来的1/factor，缩小后的宽高由{@link #getScaledNv21Width}和{@link #getScaledNv21Height}计算，
+     * 不能整除的右侧和底部像素被舍弃，因此缩小后的坐标乘以factor即为原图中的坐标
+     *
+     * @param src    原图NV21数据
+     * @param width  原图宽度
+     * @param height 原图高度
+     * @param factor 缩小倍数
+     * @param dst    缩小后的NV21数据，长度不小于缩小后宽*高*3/2
+     */
+    public static void downscaleNv21(byte[] src, int width, int height, int factor, byte[] dst) {
+        int dstWidth = getScaledNv21Width(width, factor);
+        int dstHeight = getScaledNv21Height(height, factor);
+        int area = factor * factor;
+        //Y分量，每个factor*factor的块取均值
+        int dstIndex = 0;
+        for (int dy = 0; dy < dstHeight; dy++) {
+            int srcLine = dy * factor * width;
+            for (int dx = 0; dx < dstWidth; dx++) {
+                int blockStart = srcLine + dx * factor;
+                int sum = 0;
+                for (int by = 0; by < factor; by++) {
+                    int offset = blockStart + by * width;
+                    for (int bx = 0; bx < factor; bx++) {
+                        sum += src[offset + bx] & 0xFF;
+                    }
+                }
+                dst[dstIndex++] = (byte) (sum / area);
+            }
+        }
+        //VU分量交错存放，每个factor*factor的VU对块分别取均值
+        int srcUvStart = width * height;
+        dstIndex = dstWidth * dstHeight;
+        for (int cy = 0; cy < dstHeight / 2; cy++) {
+            int srcLine = srcUvStart + cy * factor * width;
+            for (int cx = 0; cx < dstWidth / 2; cx++) {
+                int blockStart = srcLine + cx * factor * 2;
+                int sumV = 0;
+                int sumU = 0;
+                for (int by = 0; by < factor; by++) {
+                    int offset = blockStart + by * width;
+                    for (int bx = 0; bx < factor; bx++) {
+                        sumV += src[offset + bx * 2] & 0xFF;
+                        sumU += src[offset + bx * 2 + 1] & 0xFF;
+                    }
+                }
+                dst[dstIndex++] = (byte) (sumV / area);
+                dst[dstIndex++] = (byte) (sumU / area);
+            }
+        }
+    }
+
+    /**
+     * 估计NV21图像指定区域的清晰度：按步长采样Y分量，计算与右侧及下方像素差的绝对值的平均值，模糊的图像该值较小
+     *
+     * @param nv21   NV21数据
+     * @param width  图像宽度
+     * @param height 图像高度
+     * @param rect   计算的区域，超出图像的部分会被忽略
+     * @param step   采样步长
+     * @return 平均梯度，区域为空时返回0
+     */
+    public static float getNv21Sharpness(byte[] nv21, int width, int height, Rect rect, int step) {
+        int left = Math.max(0, rect.left);
+        int top = Math.max(0, rect.top);
+        int right = Math.min(width - 1, rect.right);
+        int bottom = Math.min(height - 1, rect.bottom);
+        long sum = 0;
+        int count = 0;
+        for (int y = top; y < bottom; y += step) {
+            int offset = y * width;
+            for (int x = left; x < right; x += step) {
+                int value = nv21[offset + x] & 0xFF;
+                sum += Math.abs(value - (nv21[offset + x + 1] & 0xFF));
+                sum += Math.abs(value - (nv21[offset + width + x] & 0xFF));
+                count++;
+            }
+        }
+        return count == 0 ? 0 : (float) sum / (count * 2);
+    }
 }
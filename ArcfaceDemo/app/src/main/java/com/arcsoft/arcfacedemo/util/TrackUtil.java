@@ -35,4 +35,23 @@ public class TrackUtil {
         ftFaceList.add(maxFaceInfo);
     }
 
+    /**
+     * 获取最大人脸的下标
+     *
+     * @param ftFaceList 人脸列表
+     * @return 宽度最大的人脸的下标，列表为空时返回-1
+     */
+    public static int getMaxFaceIndex(List<FaceInfo> ftFaceList) {
+        if (ftFaceList == null || ftFaceList.isEmpty()) {
+            return -1;
+        }
+        int maxIndex = 0;
+        for (int i = 1; i < ftFaceList.size(); i++) {
+            if (ftFaceList.get(i).getRect().width() > ftFaceList.get(maxIndex).getRect().width()) {
+                maxIndex = i;
+            }
+        }
+        return maxIndex;
+    }
+
 }
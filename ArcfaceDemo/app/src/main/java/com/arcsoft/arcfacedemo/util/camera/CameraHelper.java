@@ -2,6 +2,7 @@ package com.arcsoft.arcfacedemo.util.camera;
 
 import android.graphics.ImageFormat;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.util.Log;
@@ -11,8 +12,14 @@ import android.view.SurfaceView;
 import android.view.TextureView;
 import android.view.View;
 
+import com.arcsoft.arcfacedemo.util.ImageUtil;
+
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 相机辅助类，和{@link CameraListener}共同使用，获取nv21数据等操作
@@ -32,6 +39,29 @@ public class CameraHelper implements Camera.PreviewCallback {
 
     private Integer specificCameraId = null;
     private CameraListener cameraListener;
+    /**
+     * 预览缓存数量，大于0时使用{@link FrameBufferPool}循环利用预览帧
+     */
+    private int previewBufferNum;
+    private FrameBufferPool frameBufferPool;
+    /**
+     * 是否在单独的处理线程中回调{@link CameraListener#onPreview}
+     */
+    private boolean asyncPreview;
+    private FrameMailbox frameMailbox;
+    private ExecutorService previewExecutor;
+    /**
+     * 关闭相机时等待处理线程处理完当前帧超过该时间时打印警告，之后继续等待
+     */
+    private static final long WAIT_PREVIEW_WARNING_TIME = 1000;
+    /**
+     * 指定的感兴趣区域，预览帧坐标
+     */
+    private Rect specificRoi;
+    /**
+     * 按预览大小对齐后的感兴趣区域
+     */
+    private Rect roi;
 
     private CameraHelper(CameraHelper.Builder builder) {
         previewDisplayView = builder.previewDisplayView;
@@ -41,6 +71,15 @@ public class CameraHelper implements Camera.PreviewCallback {
         additionalRotation = builder.additionalRotation;
         previewViewSize = builder.previewViewSize;
         specificPreviewSize = builder.previewSize;
+        previewBufferNum = builder.previewBufferNum;
+        if (previewBufferNum > 0) {
+            frameBufferPool = new FrameBufferPool();
+        }
+        asyncPreview = builder.asyncPreview;
+        specificRoi = builder.roi;
+        if (asyncPreview) {
+            frameMailbox = new FrameMailbox();
+        }
         if (builder.previewDisplayView instanceof TextureView) {
             isMirror = builder.isMirror;
         } else if (isMirror) {
@@ -93,6 +132,18 @@ public class CameraHelper implements Camera.PreviewCallback {
                 }
                 parameters.setPreviewSize(previewSize.width, previewSize.height);
 
+                //感兴趣区域，同时作为对焦和测光区域
+                roi = ImageUtil.alignNv21Roi(specificRoi, previewSize.width, previewSize.height);
+                if (roi != null) {
+                    Camera.Area area = new Camera.Area(toCameraAreaRect(roi, previewSize), 1000);
+                    if (parameters.getMaxNumFocusAreas() > 0) {
+                        parameters.setFocusAreas(Collections.singletonList(area));
+                    }
+                    if (parameters.getMaxNumMeteringAreas() > 0) {
+                        parameters.setMeteringAreas(Collections.singletonList(area));
+                    }
+                }
+
                 //对焦模式设置
                 List<String> supportedFocusModes = parameters.getSupportedFocusModes();
                 if (supportedFocusModes != null && supportedFocusModes.size() > 0) {
@@ -110,11 +161,20 @@ public class CameraHelper implements Camera.PreviewCallback {
                 } else {
                     mCamera.setPreviewDisplay(((SurfaceView) previewDisplayView).getHolder());
                 }
-                mCamera.setPreviewCallback(this);
-                mCamera.startPreview();
+                if (frameBufferPool != null) {
+                    //预先分配固定数量的缓存循环使用，避免每帧分配新的数组
+                    frameBufferPool.attach(mCamera, previewSize.width * previewSize.height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8, previewBufferNum);
+                    mCamera.setPreviewCallbackWithBuffer(this);
+                } else {
+                    mCamera.setPreviewCallback(this);
+                }
                 if (cameraListener != null) {
                     cameraListener.onCameraOpened(mCamera, mCameraId, displayOrientation, isMirror);
                 }
+                if (asyncPreview) {
+                    startPreviewThread(mCamera);
+                }
+                mCamera.startPreview();
             } catch (Exception e) {
                 if (cameraListener != null) {
                     cameraListener.onCameraError(e);
@@ -123,6 +183,17 @@ public class CameraHelper implements Camera.PreviewCallback {
         }
     }
 
+    /**
+     * 将预览帧坐标转换为{@link Camera.Area}使用的[-1000, 1000]坐标
+     */
+    private static Rect toCameraAreaRect(Rect rect, Camera.Size previewSize) {
+        return new Rect(
+                rect.left * 2000 / previewSize.width - 1000,
+                rect.top * 2000 / previewSize.height - 1000,
+                rect.right * 2000 / previewSize.width - 1000,
+                rect.bottom * 2000 / previewSize.height - 1000);
+    }
+
     private int getCameraOri(int rotation) {
         int degrees = rotation * 90;
         switch (rotation) {
@@ -163,6 +234,10 @@ public class CameraHelper implements Camera.PreviewCallback {
             }
             try {
                 mCamera.setPreviewCallback(null);
+                stopPreviewThread();
+                if (frameBufferPool != null) {
+                    frameBufferPool.detach();
+                }
                 mCamera.setPreviewDisplay(null);
                 mCamera.stopPreview();
                 mCamera.release();
@@ -221,6 +296,99 @@ public class CameraHelper implements Camera.PreviewCallback {
         return bestSize;
     }
 
+    /**
+     * 启动处理线程，循环取出信箱中最新的帧并回调
+     *
+     * @param camera 相机实例
+     */
+    private void startPreviewThread(final Camera camera) {
+        frameMailbox.open();
+        previewExecutor = Executors.newSingleThreadExecutor();
+        previewExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] nv21;
+                    while ((nv21 = frameMailbox.take()) != null) {
+                        CameraListener listener = cameraListener;
+                        if (listener != null) {
+                            listener.onPreview(nv21, camera);
+                        }
+                        releaseFrame(nv21);
+                    }
+                } catch (InterruptedException e) {
+                    Log.i(TAG, "preview thread interrupted");
+                }
+            }
+        });
+    }
+
+    /**
+     * 停止处理线程，并等待正在处理的帧处理结束，返回后回调中使用的资源（引擎等）才能销毁，因此不设超时，被中断也继续等待。
+     * 回调中不能等待调用该方法的线程（一般为主线程），否则会死锁
+     */
+    private void stopPreviewThread() {
+        if (previewExecutor == null) {
+            return;
+        }
+        releaseFrame(frameMailbox.close());
+        previewExecutor.shutdown();
+        boolean interrupted = false;
+        boolean warned = false;
+        while (true) {
+            try {
+                if (previewExecutor.awaitTermination(WAIT_PREVIEW_WARNING_TIME, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+                if (!warned) {
+                    warned = true;
+                    Log.w(TAG, "stopPreviewThread: the current frame takes more than " + WAIT_PREVIEW_WARNING_TIME + "ms, keep waiting");
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        previewExecutor = null;
+        Log.i(TAG, "stopPreviewThread: delivered = " + frameMailbox.getDeliveredFrameCount() + " dropped = " + frameMailbox.getDroppedFrameCount());
+    }
+
+    private void releaseFrame(byte[] nv21) {
+        if (nv21 != null && frameBufferPool != null) {
+            frameBufferPool.release(nv21);
+        }
+    }
+
+    /**
+     * @return 因处理不及时被丢弃的帧数，未开启异步处理时为0
+     */
+    public long getDroppedFrameCount() {
+        return frameMailbox == null ? 0 : frameMailbox.getDroppedFrameCount();
+    }
+
+    /**
+     * @return 已交给处理线程的帧数，未开启异步处理时为0
+     */
+    public long getDeliveredFrameCount() {
+        return frameMailbox == null ? 0 : frameMailbox.getDeliveredFrameCount();
+    }
+
+    /**
+     * @return 按预览大小对齐后的感兴趣区域，未指定或相机未打开时为null
+     */
+    public Rect getRoi() {
+        return roi;
+    }
+
+    /**
+     * @return 预览帧缓存池，未开启缓存模式时为null
+     */
+    public FrameBufferPool getFrameBufferPool() {
+        return frameBufferPool;
+    }
+
     public List<Camera.Size> getSupportedPreviewSizes() {
         if (mCamera == null) {
             return null;
@@ -238,9 +406,19 @@ public class CameraHelper implements Camera.PreviewCallback {
 
     @Override
     public void onPreviewFrame(byte[] nv21, Camera camera) {
+        //回调期间持有一次引用，回调中未retain的缓存在回调结束后即还给相机
+        if (frameBufferPool != null) {
+            frameBufferPool.retain(nv21);
+        }
+        if (asyncPreview) {
+            //信箱持有该帧，被新的帧替换或处理结束后释放
+            releaseFrame(frameMailbox.post(nv21));
+            return;
+        }
         if (cameraListener != null) {
             cameraListener.onPreview(nv21, camera);
         }
+        releaseFrame(nv21);
     }
 
     private TextureView.SurfaceTextureListener textureListener = new TextureView.SurfaceTextureListener() {
@@ -329,6 +507,19 @@ public class CameraHelper implements Camera.PreviewCallback {
          * 额外的旋转角度（用于适配一些定制设备）
          */
         private int additionalRotation;
+        /**
+         * 预览缓存数量，大于0时使用{@link Camera#setPreviewCallbackWithBuffer}循环利用预览帧，
+         * 回调结束后仍需使用帧数据时需通过{@link FrameBufferPool}持有引用
+         */
+        private int previewBufferNum;
+        /**
+         * 是否在单独的处理线程中回调{@link CameraListener#onPreview}，处理不及时的帧会被丢弃，只处理最新的帧
+         */
+        private boolean asyncPreview;
+        /**
+         * 感兴趣区域，预览帧坐标，打开相机后会按预览大小对齐，并设置为对焦和测光区域
+         */
+        private Rect roi;
 
         public Builder() {
         }
@@ -379,6 +570,21 @@ public class CameraHelper implements Camera.PreviewCallback {
             return this;
         }
 
+        public Builder previewBufferNum(int val) {
+            previewBufferNum = val;
+            return this;
+        }
+
+        public Builder asyncPreview(boolean val) {
+            asyncPreview = val;
+            return this;
+        }
+
+        public Builder roi(Rect val) {
+            roi = val;
+            return this;
+        }
+
         public CameraHelper build() {
             if (previewViewSize == null) {
                 Log.e(TAG, "previewViewSize is null, now use default previewSize");
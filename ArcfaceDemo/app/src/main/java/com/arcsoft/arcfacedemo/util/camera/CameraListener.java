@@ -14,8 +14,8 @@ public interface CameraListener {
     void onCameraOpened(Camera camera, int cameraId, int displayOrientation, boolean isMirror);
 
     /**
-     * 预览数据回调
-     * @param data 预览数据
+     * 预览数据回调，开启异步预览时在处理线程中执行，否则在相机回调线程中执行
+     * @param data 预览数据，开启预览缓存时回调结束后会被重新填充，需继续使用时通过{@link FrameBufferPool#retain}持有
      * @param camera 相机实例
      */
     void onPreview(byte[] data, Camera camera);
@@ -0,0 +1,76 @@
+package com.arcsoft.arcfacedemo.util.camera;
+
+import android.hardware.Camera;
+
+import java.util.IdentityHashMap;
+
+/**
+ * 预览帧缓存池，配合{@link Camera#setPreviewCallbackWithBuffer}使用。
+ * <p>
+ * 预先分配固定数量的NV21缓存交给相机，每个缓存带有引用计数：回调时计数为1，需要在回调结束后继续使用该帧的地方
+ * （如fr线程、注册）调用{@link #retain}，使用结束后调用{@link #release}，计数归零时缓存才会还给相机重新填充。
+ * 所有缓存都在使用中时相机会丢弃新的帧。对不属于缓存池的数组调用以上方法不会有任何影响
+ */
+public class FrameBufferPool {
+    /**
+     * 缓存及其引用计数，使用数组作为可变的计数
+     */
+    private final IdentityHashMap<byte[], int[]> refCountMap = new IdentityHashMap<>();
+    private Camera camera;
+
+    /**
+     * 分配缓存并交给相机，之前分配的缓存不再属于该缓存池
+     *
+     * @param camera     相机实例
+     * @param bufferSize 每个缓存的大小
+     * @param bufferNum  缓存数量
+     */
+    synchronized void attach(Camera camera, int bufferSize, int bufferNum) {
+        refCountMap.clear();
+        this.camera = camera;
+        for (int i = 0; i < bufferNum; i++) {
+            byte[] buffer = new byte[bufferSize];
+            refCountMap.put(buffer, new int[]{0});
+            camera.addCallbackBuffer(buffer);
+        }
+    }
+
+    /**
+     * 相机关闭前调用，之后归还的缓存直接丢弃
+     */
+    synchronized void detach() {
+        camera = null;
+        refCountMap.clear();
+    }
+
+    /**
+     * 引用计数加一
+     *
+     * @param buffer 预览帧数据
+     * @return 是否是缓存池中的缓存
+     */
+    public synchronized boolean retain(byte[] buffer) {
+        int[] refCount = refCountMap.get(buffer);
+        if (refCount == null) {
+            return false;
+        }
+        refCount[0]++;
+        return true;
+    }
+
+    /**
+     * 引用计数减一，归零时还给相机
+     *
+     * @param buffer 预览帧数据
+     */
+    public synchronized void release(byte[] buffer) {
+        int[] refCount = refCountMap.get(buffer);
+        if (refCount == null || refCount[0] <= 0) {
+            return;
+        }
+        refCount[0]--;
+        if (refCount[0] == 0 && camera != null) {
+            camera.addCallbackBuffer(buffer);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.arcsoft.arcfacedemo.util.camera;
+
+/**
+ * 只能存放一帧的信箱，相机回调线程放入，处理线程取出。处理线程来不及处理时，新的帧直接替换未处理的旧帧，
+ * 处理的总是最新的帧，延迟不会随处理耗时累积
+ */
+class FrameMailbox {
+    private byte[] pendingFrame;
+    private boolean closed = false;
+    private long droppedFrameCount = 0;
+    private long deliveredFrameCount = 0;
+
+    /**
+     * 放入一帧
+     *
+     * @param frame 帧数据
+     * @return 被替换掉的未处理的帧，没有时为null；信箱已关闭时返回传入的帧
+     */
+    synchronized byte[] post(byte[] frame) {
+        if (closed) {
+            return frame;
+        }
+        byte[] staleFrame = pendingFrame;
+        pendingFrame = frame;
+        if (staleFrame != null) {
+            droppedFrameCount++;
+        }
+        notifyAll();
+        return staleFrame;
+    }
+
+    /**
+     * 取出最新的帧，信箱为空时等待
+     *
+     * @return 帧数据，信箱已关闭时返回null
+     * @throws InterruptedException 等待时被中断
+     */
+    synchronized byte[] take() throws InterruptedException {
+        while (pendingFrame == null && !closed) {
+            wait();
+        }
+        if (closed) {
+            return null;
+        }
+        byte[] frame = pendingFrame;
+        pendingFrame = null;
+        deliveredFrameCount++;
+        return frame;
+    }
+
+    /**
+     * 重新打开信箱
+     */
+    synchronized void open() {
+        closed = false;
+    }
+
+    /**
+     * 关闭信箱，唤醒等待的处理线程
+     *
+     * @return 未处理的帧，没有时为null
+     */
+    synchronized byte[] close() {
+        closed = true;
+        byte[] staleFrame = pendingFrame;
+        pendingFrame = null;
+        notifyAll();
+        return staleFrame;
+    }
+
+    synchronized long getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    synchronized long getDeliveredFrameCount() {
+        return deliveredFrameCount;
+    }
+}
@@ -0,0 +1,332 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.arcsoft.arcfacedemo.util.ImageUtil;
+import com.arcsoft.face.Face3DAngle;
+import com.arcsoft.face.FaceInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 特征提取前的择优：请求特征后在{@link #window}毫秒内，按人脸大小、姿态角度和清晰度为该trackId的每一帧打分，
+ * 只保留得分最高的一帧用于特征提取；得分达到{@link #acceptScore}时提前结束。
+ * <p>
+ * 最优帧只拷贝人脸附近的区域到选择器自己的缓存中，不持有相机的预览缓存，同时择优的人脸再多也不会占满预览缓存导致丢帧。
+ * <p>
+ * 该类不是线程安全的，需在预览处理线程中使用
+ */
+public class BestShotSelector {
+    /**
+     * 清晰度采样步长
+     */
+    private static final int SHARPNESS_SAMPLE_STEP = 2;
+    /**
+     * 裁剪区域在人脸框四周各扩展人脸宽高的比例，为特征提取保留人脸周围的信息
+     */
+    private static final float CROP_MARGIN = 0.5f;
+    /**
+     * 裁剪区域的宽高按该值向上取整，人脸大小略有变化时仍可复用同一块缓存
+     */
+    private static final int CROP_SIZE_STEP = 32;
+    /**
+     * 留作复用的裁剪缓存的最大数量
+     */
+    private static final int MAX_SPARE_BUFFERS = 4;
+
+    private long window = 300;
+    private float acceptScore = 0.8f;
+    /**
+     * 人脸宽度达到该值时大小得分为1
+     */
+    private int targetFaceWidth = 160;
+    /**
+     * 平均梯度达到该值时清晰度得分为1
+     */
+    private float targetSharpness = 12;
+    /**
+     * 偏航角与俯仰角绝对值之和达到该值时姿态得分为0
+     */
+    private float maxPoseAngle = 60;
+    /**
+     * 未交给调用方就结束择优的裁剪缓存，供之后的择优复用
+     */
+    private List<byte[]> spareBuffers = new ArrayList<>();
+
+    private SparseArray<Candidate> candidates = new SparseArray<>();
+    private List<Candidate> readyList = new ArrayList<>();
+
+    /**
+     * 某个trackId当前得分最高的一帧中人脸附近的区域
+     */
+    public static class Candidate {
+        private int trackId;
+        private long deadline;
+        private byte[] nv21;
+        private int width;
+        private int height;
+        private FaceInfo faceInfo;
+        private float score = -1;
+
+        public int getTrackId() {
+            return trackId;
+        }
+
+        /**
+         * @return 裁剪后的NV21数据
+         */
+        public byte[] getNv21() {
+            return nv21;
+        }
+
+        /**
+         * @return 裁剪区域的宽度
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * @return 裁剪区域的高度
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return 裁剪区域坐标系中的人脸
+         */
+        public FaceInfo getFaceInfo() {
+            return faceInfo;
+        }
+
+        public float getScore() {
+            return score;
+        }
+    }
+
+    private BestShotSelector(Builder builder) {
+        if (builder.window > 0) {
+            window = builder.window;
+        }
+        if (builder.acceptScore > 0) {
+            acceptScore = builder.acceptScore;
+        }
+        if (builder.targetFaceWidth > 0) {
+            targetFaceWidth = builder.targetFaceWidth;
+        }
+    }
+
+    /**
+     * 开始为trackId择优，已在择优中时不做处理
+     *
+     * @param trackId trackId
+     */
+    public void open(int trackId) {
+        if (candidates.get(trackId) != null) {
+            return;
+        }
+        Candidate candidate = new Candidate();
+        candidate.trackId = trackId;
+        candidate.deadline = SystemClock.elapsedRealtime() + window;
+        candidates.put(trackId, candidate);
+    }
+
+    /**
+     * @param trackId trackId
+     * @return 该trackId是否正在择优
+     */
+    public boolean isOpen(int trackId) {
+        return candidates.get(trackId) != null;
+    }
+
+    /**
+     * @return 是否有正在择优的trackId
+     */
+    public boolean hasOpen() {
+        return candidates.size() > 0;
+    }
+
+    /**
+     * 为一帧中的人脸打分，得分高于当前最优帧时裁剪人脸附近的区域替换之
+     *
+     * @param trackId     trackId
+     * @param nv21        预览帧
+     * @param width       预览宽度
+     * @param height      预览高度
+     * @param faceInfo    预览坐标的人脸
+     * @param face3DAngle 人脸角度，为空时不计算姿态得分
+     */
+    public void offer(int trackId, byte[] nv21, int width, int height, FaceInfo faceInfo, Face3DAngle face3DAngle) {
+        Candidate candidate = candidates.get(trackId);
+        if (candidate == null) {
+            return;
+        }
+        Rect rect = faceInfo.getRect();
+        float score = score(nv21, width, height, rect, face3DAngle);
+        if (score <= candidate.score) {
+            return;
+        }
+        Rect roi = getCropRect(rect, width, height);
+        if (roi == null) {
+            return;
+        }
+        //预览帧会被相机复用，只拷贝人脸附近的区域到候选帧自己的缓存中
+        int length = roi.width() * roi.height() * 3 / 2;
+        if (candidate.nv21 == null || candidate.nv21.length != length) {
+            recycleFrame(candidate);
+            candidate.nv21 = obtainBuffer(length);
+        }
+        ImageUtil.cropNv21(nv21, width, height, roi, candidate.nv21);
+        candidate.width = roi.width();
+        candidate.height = roi.height();
+        if (candidate.faceInfo == null || candidate.faceInfo.getOrient() != faceInfo.getOrient()) {
+            candidate.faceInfo = new FaceInfo(new Rect(), faceInfo.getOrient());
+        }
+        candidate.faceInfo.getRect().set(rect);
+        candidate.faceInfo.getRect().offset(-roi.left, -roi.top);
+        candidate.score = score;
+    }
+
+    /**
+     * 取出已结束择优的最优帧：择优时间已到或得分达到{@link #acceptScore}。已经离开的人脸直接丢弃。
+     * 返回的帧交给调用方后需调用{@link #releaseFrame(Candidate)}
+     *
+     * @param faceTracker 最新的追踪结果
+     * @return 结束择优的最优帧，列表在下次调用时会被清空
+     */
+    public List<Candidate> pollReady(FaceTracker faceTracker) {
+        readyList.clear();
+        long now = SystemClock.elapsedRealtime();
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            Candidate candidate = candidates.valueAt(i);
+            if (!faceTracker.containsTrackId(candidate.trackId)) {
+                recycleFrame(candidate);
+                candidates.removeAt(i);
+            } else if (candidate.nv21 != null && (now >= candidate.deadline || candidate.score >= acceptScore)) {
+                readyList.add(candidate);
+                candidates.removeAt(i);
+            }
+        }
+        return readyList;
+    }
+
+    /**
+     * 候选帧的数据已交给调用方，选择器不再持有也不再复用该缓存
+     *
+     * @param candidate 候选帧
+     */
+    public void releaseFrame(Candidate candidate) {
+        candidate.nv21 = null;
+    }
+
+    /**
+     * 结束所有择优，持有的裁剪缓存留作复用
+     */
+    public void clear() {
+        for (int i = 0; i < candidates.size(); i++) {
+            recycleFrame(candidates.valueAt(i));
+        }
+        candidates.clear();
+        readyList.clear();
+    }
+
+    /**
+     * 未交给调用方的裁剪缓存留作之后的择优使用，超过{@link #MAX_SPARE_BUFFERS}时丢弃最早的缓存
+     */
+    private void recycleFrame(Candidate candidate) {
+        if (candidate.nv21 != null) {
+            if (spareBuffers.size() == MAX_SPARE_BUFFERS) {
+                spareBuffers.remove(0);
+            }
+            spareBuffers.add(candidate.nv21);
+            candidate.nv21 = null;
+        }
+    }
+
+    private byte[] obtainBuffer(int length) {
+        for (int i = spareBuffers.size() - 1; i >= 0; i--) {
+            if (spareBuffers.get(i).length == length) {
+                return spareBuffers.remove(i);
+            }
+        }
+        return new byte[length];
+    }
+
+    /**
+     * 以人脸为中心，向四周扩展{@link #CROP_MARGIN}并按{@link #CROP_SIZE_STEP}取整的裁剪区域，超出图像时向内平移
+     *
+     * @param rect   人脸框
+     * @param width  图像宽度
+     * @param height 图像高度
+     * @return 对齐后的裁剪区域，为空时返回null
+     */
+    static Rect getCropRect(Rect rect, int width, int height) {
+        int cropWidth = roundUp((int) (rect.width() * (1 + 2 * CROP_MARGIN)), CROP_SIZE_STEP);
+        int cropHeight = roundUp((int) (rect.height() * (1 + 2 * CROP_MARGIN)), CROP_SIZE_STEP);
+        cropWidth = Math.min(cropWidth, width);
+        cropHeight = Math.min(cropHeight, height);
+        int left = Math.max(0, Math.min(rect.centerX() - cropWidth / 2, width - cropWidth));
+        int top = Math.max(0, Math.min(rect.centerY() - cropHeight / 2, height - cropHeight));
+        return ImageUtil.alignNv21Roi(new Rect(left, top, left + cropWidth, top + cropHeight), width, height);
+    }
+
+    private static int roundUp(int value, int step) {
+        return (value + step - 1) / step * step;
+    }
+
+    /**
+     * 大小、姿态、清晰度得分的乘积，范围为[0, 1]
+     */
+    private float score(byte[] nv21, int width, int height, Rect rect, Face3DAngle face3DAngle) {
+        float sizeScore = Math.min(1f, (float) rect.width() / targetFaceWidth);
+        float poseScore = 1;
+        if (face3DAngle != null && face3DAngle.getStatus() == 0) {
+            float poseAngle = Math.abs(face3DAngle.getYaw()) + Math.abs(face3DAngle.getPitch());
+            poseScore = Math.max(0, 1 - poseAngle / maxPoseAngle);
+        }
+        float sharpness = ImageUtil.getNv21Sharpness(nv21, width, height, rect, SHARPNESS_SAMPLE_STEP);
+        float sharpnessScore = Math.min(1f, sharpness / targetSharpness);
+        return sizeScore * poseScore * sharpnessScore;
+    }
+
+    public static final class Builder {
+        private long window;
+        private float acceptScore;
+        private int targetFaceWidth;
+
+        public Builder() {
+        }
+
+        /**
+         * 择优的时间窗口，单位为毫秒
+         */
+        public Builder window(long val) {
+            window = val;
+            return this;
+        }
+
+        /**
+         * 得分达到该值时提前结束择优，范围为(0, 1]
+         */
+        public Builder acceptScore(float val) {
+            acceptScore = val;
+            return this;
+        }
+
+        /**
+         * 人脸宽度达到该值时大小得分为1
+         */
+        public Builder targetFaceWidth(int val) {
+            targetFaceWidth = val;
+            return this;
+        }
+
+        public BestShotSelector build() {
+            return new BestShotSelector(this);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import com.arcsoft.face.FaceEngine;
+
+/**
+ * 从{@link FaceEngineManager}租借的引擎，使用结束后需调用{@link #release()}归还，归还后不能再使用该引擎
+ */
+public class FaceEngineLease {
+    private FaceEngineManager faceEngineManager;
+    private FaceEngineManager.EngineConfig config;
+    private FaceEngine faceEngine;
+    private int initCode;
+    private boolean released = false;
+
+    FaceEngineLease(FaceEngineManager faceEngineManager, FaceEngineManager.EngineConfig config, FaceEngine faceEngine, int initCode) {
+        this.faceEngineManager = faceEngineManager;
+        this.config = config;
+        this.faceEngine = faceEngine;
+        this.initCode = initCode;
+    }
+
+    /**
+     * @return 引擎，初始化失败时为null
+     */
+    public FaceEngine getFaceEngine() {
+        return faceEngine;
+    }
+
+    /**
+     * @return 引擎初始化的错误码，复用空闲引擎时为{@link com.arcsoft.face.ErrorInfo#MOK}
+     */
+    public int getInitCode() {
+        return initCode;
+    }
+
+    /**
+     * 归还引擎，重复调用无影响
+     */
+    public void release() {
+        FaceEngine engine;
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            released = true;
+            engine = faceEngine;
+        }
+        if (engine != null) {
+            faceEngineManager.recycle(config, engine);
+        }
+    }
+}
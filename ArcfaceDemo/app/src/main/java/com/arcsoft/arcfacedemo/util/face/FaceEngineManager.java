@@ -0,0 +1,206 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.arcsoft.face.ErrorInfo;
+import com.arcsoft.face.FaceEngine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 应用级的引擎管理类，按初始化参数缓存已初始化的引擎，以租借的方式提供给各页面使用。
+ * <p>
+ * 引擎初始化和销毁的耗时较长，页面切换时归还的引擎保留在空闲池中，下次以相同参数获取时直接复用。
+ * 引擎实例不支持多线程同时调用，同一个引擎同一时间只会借给一个使用者
+ */
+public class FaceEngineManager {
+    private static final String TAG = "FaceEngineManager";
+    /**
+     * 每种参数默认最多保留的空闲引擎数
+     */
+    private static final int DEFAULT_MAX_IDLE_NUM = 8;
+
+    /**
+     * 只用于特征提取和比对的引擎参数，{@link FaceHelper}的fr线程和人脸库搜索共用
+     */
+    public static final EngineConfig CONFIG_RECOGNITION = new EngineConfig(FaceEngine.ASF_DETECT_MODE_IMAGE, FaceEngine.ASF_OP_0_HIGHER_EXT,
+            16, 1, FaceEngine.ASF_FACE_RECOGNITION);
+
+    private static volatile FaceEngineManager faceEngineManager = null;
+
+    private final Map<EngineConfig, LinkedList<FaceEngine>> idleEngineMap = new HashMap<>();
+    private int maxIdleNum = DEFAULT_MAX_IDLE_NUM;
+
+    public static FaceEngineManager getInstance() {
+        if (faceEngineManager == null) {
+            synchronized (FaceEngineManager.class) {
+                if (faceEngineManager == null) {
+                    faceEngineManager = new FaceEngineManager();
+                }
+            }
+        }
+        return faceEngineManager;
+    }
+
+    /**
+     * 设置每种参数最多保留的空闲引擎数，超出的引擎在归还时直接销毁
+     *
+     * @param maxIdleNum 空闲引擎数
+     */
+    public synchronized void setMaxIdleNum(int maxIdleNum) {
+        if (maxIdleNum >= 0) {
+            this.maxIdleNum = maxIdleNum;
+        }
+    }
+
+    /**
+     * 租借一个引擎，空闲池中有相同参数的引擎时直接返回，否则初始化一个新的引擎
+     *
+     * @param context 上下文对象
+     * @param config  引擎初始化参数
+     * @return 租约，需通过{@link FaceEngineLease#getInitCode()}判断是否可用，使用结束后调用{@link FaceEngineLease#release()}归还
+     */
+    public FaceEngineLease acquire(Context context, EngineConfig config) {
+        FaceEngine faceEngine = null;
+        synchronized (this) {
+            LinkedList<FaceEngine> idleEngines = idleEngineMap.get(config);
+            if (idleEngines != null) {
+                faceEngine = idleEngines.poll();
+            }
+        }
+        if (faceEngine != null) {
+            return new FaceEngineLease(this, config, faceEngine, ErrorInfo.MOK);
+        }
+        //初始化耗时较长，不在锁内进行
+        faceEngine = new FaceEngine();
+        int code = faceEngine.init(context.getApplicationContext(), config.detectMode, config.orientPriority,
+                config.scale, config.maxFaceNum, config.combinedMask);
+        if (code != ErrorInfo.MOK) {
+            Log.e(TAG, "acquire: init failed! code = " + code + " config = " + config);
+            //初始化失败时可能已分配部分资源
+            faceEngine.unInit();
+            return new FaceEngineLease(this, config, null, code);
+        }
+        return new FaceEngineLease(this, config, faceEngine, code);
+    }
+
+    /**
+     * 预先初始化引擎并放入空闲池，之后的{@link #acquire}无需等待初始化，需在子线程调用
+     *
+     * @param context 上下文对象
+     * @param config  引擎初始化参数
+     * @param count   空闲池中需要的引擎数
+     */
+    public void preload(Context context, EngineConfig config, int count) {
+        List<FaceEngineLease> leaseList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            FaceEngineLease lease = acquire(context, config);
+            if (lease.getInitCode() != ErrorInfo.MOK) {
+                break;
+            }
+            leaseList.add(lease);
+        }
+        for (FaceEngineLease lease : leaseList) {
+            lease.release();
+        }
+    }
+
+    /**
+     * 归还引擎，空闲池已满时销毁
+     */
+    void recycle(EngineConfig config, FaceEngine faceEngine) {
+        synchronized (this) {
+            LinkedList<FaceEngine> idleEngines = idleEngineMap.get(config);
+            if (idleEngines == null) {
+                idleEngines = new LinkedList<>();
+                idleEngineMap.put(config, idleEngines);
+            }
+            if (idleEngines.size() < maxIdleNum) {
+                idleEngines.offer(faceEngine);
+                return;
+            }
+        }
+        faceEngine.unInit();
+    }
+
+    /**
+     * 销毁所有空闲的引擎，已借出的引擎在归还时放入空闲池
+     */
+    public void releaseIdle() {
+        List<FaceEngine> engineList = new ArrayList<>();
+        synchronized (this) {
+            for (LinkedList<FaceEngine> idleEngines : idleEngineMap.values()) {
+                engineList.addAll(idleEngines);
+            }
+            idleEngineMap.clear();
+        }
+        for (FaceEngine faceEngine : engineList) {
+            faceEngine.unInit();
+        }
+        Log.i(TAG, "releaseIdle: " + engineList.size() + " engines released");
+    }
+
+    /**
+     * 引擎初始化参数，参数相同的引擎可以互相替换
+     */
+    public static final class EngineConfig {
+        private final int detectMode;
+        private final int orientPriority;
+        private final int scale;
+        private final int maxFaceNum;
+        private final int combinedMask;
+
+        /**
+         * 参数同{@link FaceEngine#init}
+         */
+        public EngineConfig(int detectMode, int orientPriority, int scale, int maxFaceNum, int combinedMask) {
+            this.detectMode = detectMode;
+            this.orientPriority = orientPriority;
+            this.scale = scale;
+            this.maxFaceNum = maxFaceNum;
+            this.combinedMask = combinedMask;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof EngineConfig)) {
+                return false;
+            }
+            EngineConfig that = (EngineConfig) o;
+            return detectMode == that.detectMode
+                    && orientPriority == that.orientPriority
+                    && scale == that.scale
+                    && maxFaceNum == that.maxFaceNum
+                    && combinedMask == that.combinedMask;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = detectMode;
+            result = 31 * result + orientPriority;
+            result = 31 * result + scale;
+            result = 31 * result + maxFaceNum;
+            result = 31 * result + combinedMask;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "EngineConfig{" +
+                    "detectMode=" + detectMode +
+                    ", orientPriority=" + orientPriority +
+                    ", scale=" + scale +
+                    ", maxFaceNum=" + maxFaceNum +
+                    ", combinedMask=" + combinedMask +
+                    '}';
+        }
+    }
+}
@@ -1,12 +1,17 @@
 package com.arcsoft.arcfacedemo.util.face;
 
+import android.content.Context;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.arcsoft.arcfacedemo.model.FacePreviewInfo;
+import com.arcsoft.arcfacedemo.util.ImageUtil;
 import com.arcsoft.arcfacedemo.util.TrackUtil;
+import com.arcsoft.arcfacedemo.util.camera.FrameBufferPool;
 import com.arcsoft.face.ErrorInfo;
+import com.arcsoft.face.Face3DAngle;
 import com.arcsoft.face.FaceEngine;
 import com.arcsoft.face.FaceFeature;
 import com.arcsoft.face.FaceInfo;
@@ -14,52 +19,224 @@ import com.arcsoft.face.LivenessInfo;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class FaceHelper {
     private static final String TAG = "FaceHelper";
+    /**
+     * 用于ft和活体检测的引擎，只在预览线程中使用；没有传入context时也用于fr，见{@link #frEngineShared}
+     */
     private FaceEngine faceEngine;
+    /**
+     * 没有传入context时无法创建独立的fr引擎，使用一个fr线程与预览线程共用{@link #faceEngine}（需加载特征提取模块），
+     * 双方调用引擎时都需持有该引擎的锁，fr进行期间预览线程会等待
+     */
+    private boolean frEngineShared = false;
 
     private Camera.Size previewSize;
 
     /**
-     * fr 线程数，建议和ft初始化时的maxFaceNum相同
+     * fr 线程数，每个线程使用一个独立的fr引擎，建议不超过ft初始化时的maxFaceNum及CPU核心数
      */
     private int frThreadNum = 5;
 
     private List<FaceInfo> faceInfoList = new ArrayList<>();
+    /**
+     * 与faceInfoList一一对应的活体结果，未做活体检测或检测失败的人脸为null
+     */
     private List<LivenessInfo> livenessInfoList = new ArrayList<>();
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
-    private boolean frThreadRunning = false;
+    /**
+     * 检测图像坐标的人脸，与faceInfoList一一对应，用于活体检测
+     */
+    private List<FaceInfo> detectFaceInfoList = new ArrayList<>();
+    /**
+     * 映射回原图坐标的人脸，按下标复用，避免每帧为每个人脸创建对象
+     */
+    private List<FaceInfo> previewFaceInfoHolders = new ArrayList<>();
+    /**
+     * 需要进行活体检测或获取角度的人脸及其结果
+     */
+    private List<FaceInfo> processFaceInfoList = new ArrayList<>();
+    /**
+     * processFaceInfoList中每个人脸在faceInfoList中的下标
+     */
+    private int[] processFaceIndexes = new int[TRACK_CAPACITY];
+    private boolean[] processNeedLiveness = new boolean[TRACK_CAPACITY];
+    private List<FaceInfo> singleFaceInfoList = new ArrayList<>();
+    private List<LivenessInfo> livenessResultList = new ArrayList<>();
+    private List<Face3DAngle> face3DAngleList = new ArrayList<>();
+    /**
+     * 特征提取前的择优，为空时收到请求立即提取特征
+     */
+    private BestShotSelector bestShotSelector;
+    private LivenessCache livenessCache;
+    private volatile boolean livenessEnabled = true;
+    /**
+     * 活体检测模式：每个人脸都进行活体检测
+     */
+    public static final int LIVENESS_MODE_EACH = 0;
+    /**
+     * 活体检测模式：只对最大的人脸进行活体检测，其余人脸直接识别
+     */
+    public static final int LIVENESS_MODE_PRIMARY = 1;
+    private int livenessMode = LIVENESS_MODE_EACH;
+    /**
+     * 最近一次检测中最大人脸的trackId，没有人脸时为-1
+     */
+    private volatile int primaryTrackId = -1;
+    /**
+     * 多人脸模式，为false时只保留最大的人脸
+     */
+    private boolean multiFace = false;
+    /**
+     * 活体结果默认的缓存有效期
+     */
+    private static final long DEFAULT_LIVENESS_TTL = 10000;
+    /**
+     * fr线程池，线程数与成功初始化的fr引擎数相同
+     */
+    private ExecutorService frExecutor;
+    /**
+     * 等待执行的fr任务，最多缓存frThreadNum个，已满时新的请求直接失败
+     */
+    private LinkedBlockingQueue<Runnable> faceRecognizeRunnables;
+    /**
+     * 空闲的fr引擎，fr线程执行任务时取出，结束后归还
+     */
+    private LinkedBlockingQueue<FaceEngineLease> frEngineQueue;
+    private boolean frEngineReleased = false;
+    /**
+     * 预览帧缓存池，fr线程使用帧数据期间持有引用，可为空
+     */
+    private FrameBufferPool frameBufferPool;
+    /**
+     * 帧率调节器，为空时处理每一帧
+     */
+    private FrameRateGovernor frameRateGovernor;
+    /**
+     * 运动检测，画面静止且没有人脸时跳过人脸检测，可为空
+     */
+    private MotionGate motionGate;
+    /**
+     * 人脸检测时的缩小倍数，为1时在原图上检测；大于1时在缩小后的图像上检测和活体检测，人脸框再映射回原图坐标，特征提取仍使用原图
+     */
+    private int detectScale = 1;
+    private byte[] scaledNv21;
+    private int scaledWidth;
+    private int scaledHeight;
+    /**
+     * 感兴趣区域，为空时检测整个画面；不为空时只在该区域内检测，人脸框再平移回原图坐标
+     */
+    private Rect roi;
+    private byte[] roiNv21;
     private FaceListener faceListener;
-    private LinkedBlockingQueue<FaceRecognizeRunnable> faceRecognizeRunnables;
     //trackId相关
-    private int currentTrackId = 0;
-    private List<Integer> formerTrackIdList = new ArrayList<>();
-    private List<Integer> currentTrackIdList = new ArrayList<>();
-    private List<Rect> formerFaceRectList = new ArrayList<>();
+    /**
+     * 追踪器预分配的人脸数，超出时会自动扩容
+     */
+    private static final int TRACK_CAPACITY = 10;
+    private FaceTracker faceTracker;
+    /**
+     * 检测间隔帧数，大于1时每隔detectInterval帧做一次人脸检测，其余帧按运动模型推算人脸框
+     */
+    private int detectInterval = 1;
+    /**
+     * 推算结果的最低置信度，低于该值时每帧都做检测
+     */
+    private static final float PREDICT_MIN_CONFIDENCE = 0.6f;
     private List<FacePreviewInfo> facePreviewInfoList = new ArrayList<>();
-    private ConcurrentHashMap<Integer, String> nameMap = new ConcurrentHashMap<>();
-    private static final float SIMILARITY_RECT = 0.3f;
+    /**
+     * 复用的FacePreviewInfo，数量为出现过的最多人脸数
+     */
+    private List<FacePreviewInfo> facePreviewInfoHolders = new ArrayList<>();
+    /**
+     * trackId对应的名字，读写时需对其加锁
+     */
+    private final SparseArray<String> nameMap = new SparseArray<>();
 
     private FaceHelper(Builder builder) {
         faceEngine = builder.faceEngine;
         faceListener = builder.faceListener;
-        currentTrackId = builder.currentTrackId;
+        faceTracker = new FaceTracker(TRACK_CAPACITY, builder.currentTrackId);
+        livenessCache = new LivenessCache(builder.livenessTtl > 0 ? builder.livenessTtl : DEFAULT_LIVENESS_TTL);
+        livenessEnabled = builder.livenessEnabled;
+        multiFace = builder.multiFace;
+        if (builder.livenessMode == LIVENESS_MODE_EACH || builder.livenessMode == LIVENESS_MODE_PRIMARY) {
+            livenessMode = builder.livenessMode;
+        } else {
+            Log.e(TAG, "unsupported livenessMode:" + builder.livenessMode + ",now using default value:" + livenessMode);
+        }
         previewSize = builder.previewSize;
+        frameBufferPool = builder.frameBufferPool;
+        frameRateGovernor = builder.frameRateGovernor;
+        motionGate = builder.motionGate;
+        if (builder.bestShotWindow > 0) {
+            bestShotSelector = new BestShotSelector.Builder()
+                    .window(builder.bestShotWindow)
+                    .build();
+        }
+        if (builder.detectInterval > 1) {
+            detectInterval = builder.detectInterval;
+        }
+        if (builder.detectScale > 1) {
+            detectScale = builder.detectScale;
+        }
+        if (previewSize != null) {
+            roi = ImageUtil.alignNv21Roi(builder.roi, previewSize.width, previewSize.height);
+        }
         if (builder.frThreadNum > 0) {
             frThreadNum = builder.frThreadNum;
-            faceRecognizeRunnables = new LinkedBlockingQueue<FaceRecognizeRunnable>(frThreadNum);
         } else {
             Log.e(TAG, "frThread num must > 0,now using default value:" + frThreadNum);
         }
         if (previewSize == null) {
             throw new RuntimeException("previewSize must be specified!");
         }
+        if (builder.context != null) {
+            initFrEngines(builder.context.getApplicationContext());
+        } else {
+            initSharedFrEngine();
+        }
+    }
+
+    /**
+     * 没有传入context时，与预览线程共用同一个引擎进行特征提取，只使用一个fr线程
+     */
+    private void initSharedFrEngine() {
+        if (faceEngine == null) {
+            return;
+        }
+        frEngineShared = true;
+        faceRecognizeRunnables = new LinkedBlockingQueue<>(frThreadNum);
+        frExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, faceRecognizeRunnables);
+    }
+
+    /**
+     * 为每个fr线程从{@link FaceEngineManager}租借一个只用于特征提取的引擎，引擎实例不能被多个线程同时使用，各线程持有独立的引擎后即可并行提取特征
+     *
+     * @param context 上下文对象
+     */
+    private void initFrEngines(Context context) {
+        frEngineQueue = new LinkedBlockingQueue<>();
+        for (int i = 0; i < frThreadNum; i++) {
+            FaceEngineLease frEngineLease = FaceEngineManager.getInstance().acquire(context, FaceEngineManager.CONFIG_RECOGNITION);
+            if (frEngineLease.getInitCode() != ErrorInfo.MOK) {
+                Log.e(TAG, "initFrEngines: init failed! code = " + frEngineLease.getInitCode());
+                break;
+            }
+            frEngineQueue.offer(frEngineLease);
+        }
+        int frEngineNum = frEngineQueue.size();
+        if (frEngineNum == 0) {
+            return;
+        }
+        //线程数与引擎数相同，任务执行时总能取到空闲的引擎
+        faceRecognizeRunnables = new LinkedBlockingQueue<>(frThreadNum);
+        frExecutor = new ThreadPoolExecutor(frEngineNum, frEngineNum, 0L, TimeUnit.MILLISECONDS, faceRecognizeRunnables);
     }
 
     /**
@@ -71,78 +248,433 @@ public class FaceHelper {
      * @param height   图像高度
      * @param format   图像格式
      * @param trackId  请求人脸特征的唯一请求码，一般使用trackId
+     *                 <p>
+     *                 设置了{@link Builder#bestShotWindow(long)}时，传入的帧不直接用于特征提取，而是在之后的预览帧中为该trackId择优，
+     *                 此时trackId必须为{@link FacePreviewInfo#getTrackId()}，且需在调用{@link #onPreviewFrame(byte[])}的线程中调用
      */
     public void requestFaceFeature(byte[] nv21, FaceInfo faceInfo, int width, int height, int format, Integer trackId) {
         if (faceListener != null) {
-            if (faceEngine != null && faceRecognizeRunnables != null && faceRecognizeRunnables.size() < frThreadNum && !frThreadRunning) {
-                faceRecognizeRunnables.add(new FaceRecognizeRunnable(nv21, faceInfo, width, height, format, trackId));
-                executor.execute(faceRecognizeRunnables.poll());
-            } else {
+            if (bestShotSelector != null) {
+                bestShotSelector.open(trackId);
+                return;
+            }
+            executeFaceFeatureRequest(nv21, faceInfo, width, height, format, trackId);
+        }
+    }
+
+    private void executeFaceFeatureRequest(byte[] nv21, FaceInfo faceInfo, int width, int height, int format, Integer trackId) {
+        if (faceListener != null) {
+            //没有可用的FR引擎
+            if (frExecutor == null) {
                 faceListener.onFaceFeatureInfoGet(null, trackId);
+            } else if (!frExecutor.isShutdown() && faceRecognizeRunnables.remainingCapacity() > 0) {
+                FaceRecognizeRunnable faceRecognizeRunnable = new FaceRecognizeRunnable(nv21, faceInfo, width, height, format, trackId);
+                try {
+                    frExecutor.execute(faceRecognizeRunnable);
+                } catch (RejectedExecutionException e) {
+                    faceRecognizeRunnable.releaseFrame();
+                    faceListener.onFaceFeatureRejected(trackId);
+                }
+            } else {
+                faceListener.onFaceFeatureRejected(trackId);
             }
         }
     }
 
 
     public void release() {
-        if (!executor.isShutdown()) {
-            executor.shutdown();
+        if (frExecutor != null && !frExecutor.isShutdown()) {
+            //未执行的任务不会再执行，释放其持有的帧
+            for (Runnable runnable : frExecutor.shutdownNow()) {
+                ((FaceRecognizeRunnable) runnable).releaseFrame();
+            }
+            //共用的引擎由调用方在release之后销毁，需等待正在进行的fr结束
+            if (frEngineShared) {
+                try {
+                    frExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        releaseFrEngines();
+        if (bestShotSelector != null) {
+            bestShotSelector.clear();
         }
         if (faceInfoList != null) {
             faceInfoList.clear();
         }
+        previewFaceInfoHolders.clear();
         if (faceRecognizeRunnables != null) {
             faceRecognizeRunnables.clear();
         }
-        if (nameMap != null) {
+        synchronized (nameMap) {
             nameMap.clear();
         }
         faceRecognizeRunnables = null;
-        nameMap = null;
         faceListener = null;
         faceInfoList = null;
     }
 
+    /**
+     * 将空闲的fr引擎归还给{@link FaceEngineManager}，仍在使用中的引擎由fr线程在使用结束后归还
+     */
+    private void releaseFrEngines() {
+        if (frEngineQueue == null) {
+            return;
+        }
+        synchronized (frEngineQueue) {
+            frEngineReleased = true;
+            FaceEngineLease frEngineLease;
+            while ((frEngineLease = frEngineQueue.poll()) != null) {
+                frEngineLease.release();
+            }
+        }
+    }
+
+    /**
+     * fr线程使用结束后放回空闲队列，若已经release则归还给{@link FaceEngineManager}
+     *
+     * @param frEngineLease fr引擎
+     */
+    private void recycleFrEngine(FaceEngineLease frEngineLease) {
+        synchronized (frEngineQueue) {
+            if (frEngineReleased) {
+                frEngineLease.release();
+            } else {
+                frEngineQueue.offer(frEngineLease);
+            }
+        }
+    }
+
+    /**
+     * 处理预览帧，进行人脸检测、trackId分配和活体检测
+     *
+     * @param nv21 预览帧
+     * @return 人脸信息列表；设置了{@link FrameRateGovernor}且当前帧被跳过时返回null，此时上一帧的结果仍然有效。
+     * 其中的人脸信息在之后的帧中会被复用，需要保留时应拷贝
+     */
     public List<FacePreviewInfo> onPreviewFrame(byte[] nv21) {
         if (faceListener != null) {
-            if (faceEngine != null) {
-                faceInfoList.clear();
-                long ftStartTime = System.currentTimeMillis();
-                int code = faceEngine.detectFaces(nv21, previewSize.width, previewSize.height, FaceEngine.CP_PAF_NV21, faceInfoList);
-                if (code != ErrorInfo.MOK) {
-                    faceListener.onFail(new Exception("ft failed,code is " + code));
-                } else {
-//                    Log.i(TAG, "onPreviewFrame: ft costTime = " + (System.currentTimeMillis() - ftStartTime) + "ms");
+            if (frameRateGovernor != null && !frameRateGovernor.shouldProcess()) {
+                return null;
+            }
+            //画面中的人脸运动稳定，不做检测，按运动模型推算人脸框
+            if (shouldPredict()) {
+                predictFaceInfoList();
+                if (frameRateGovernor != null) {
+                    frameRateGovernor.onFrameProcessed(faceInfoList.size());
                 }
-                /*
-                 * 活体检测只支持一个人脸，所以只保留最大的人脸
-                 * 若需要多人脸搜索，删除此行代码，并且关闭活体判断
-                 */
-                TrackUtil.keepMaxFace(faceInfoList);
-
-                refreshTrackId(faceInfoList);
-                code = faceEngine.process(nv21, previewSize.width, previewSize.height, FaceEngine.CP_PAF_NV21, faceInfoList, FaceEngine.ASF_LIVENESS);
-                if (code != ErrorInfo.MOK) {
-                    faceListener.onFail(new Exception("process failed,code is " + code));
+                submitBestShots();
+                return buildFacePreviewInfoList();
+            }
+            byte[] detectNv21 = nv21;
+            int detectWidth = previewSize.width;
+            int detectHeight = previewSize.height;
+            //只在感兴趣区域内检测
+            if (roi != null) {
+                if (roiNv21 == null) {
+                    roiNv21 = new byte[roi.width() * roi.height() * 3 / 2];
                 }
-                code = faceEngine.getLiveness(livenessInfoList);
-                if (code != ErrorInfo.MOK) {
-                    faceListener.onFail(new Exception("getLiveness failed,code is " + code));
+                ImageUtil.cropNv21(nv21, previewSize.width, previewSize.height, roi, roiNv21);
+                detectNv21 = roiNv21;
+                detectWidth = roi.width();
+                detectHeight = roi.height();
+            }
+            //上一帧没有人脸且画面静止，当前帧也不会有人脸
+            if (motionGate != null && !motionGate.hasMotion(detectNv21, detectWidth, detectHeight) && faceTracker.getTrackCount() == 0) {
+                if (frameRateGovernor != null) {
+                    frameRateGovernor.onFrameProcessed(0);
                 }
+                facePreviewInfoList.clear();
+                return facePreviewInfoList;
             }
-            facePreviewInfoList.clear();
-            if (livenessInfoList.size() == faceInfoList.size()) {
-                for (int i = 0; i < faceInfoList.size(); i++) {
-                    facePreviewInfoList.add(new FacePreviewInfo(faceInfoList.get(i), livenessInfoList.get(i), currentTrackIdList.get(i)));
+            if (faceEngine != null) {
+                //与fr线程共用引擎时需加锁，不共用时锁没有竞争
+                synchronized (faceEngine) {
+                    faceInfoList.clear();
+                    long ftStartTime = System.currentTimeMillis();
+                    if (frameRateGovernor != null) {
+                        frameRateGovernor.onStageStart(FrameRateGovernor.STAGE_DETECT);
+                    }
+                    if (detectScale > 1) {
+                        if (scaledNv21 == null) {
+                            scaledWidth = ImageUtil.getScaledNv21Width(detectWidth, detectScale);
+                            scaledHeight = ImageUtil.getScaledNv21Height(detectHeight, detectScale);
+                            scaledNv21 = new byte[scaledWidth * scaledHeight * 3 / 2];
+                        }
+                        ImageUtil.downscaleNv21(detectNv21, detectWidth, detectHeight, detectScale, scaledNv21);
+                        detectNv21 = scaledNv21;
+                        detectWidth = scaledWidth;
+                        detectHeight = scaledHeight;
+                    }
+                    int code = faceEngine.detectFaces(detectNv21, detectWidth, detectHeight, FaceEngine.CP_PAF_NV21, faceInfoList);
+                    if (frameRateGovernor != null) {
+                        frameRateGovernor.onStageEnd(FrameRateGovernor.STAGE_DETECT);
+                    }
+                    if (code != ErrorInfo.MOK) {
+                        faceListener.onFail(new Exception("ft failed,code is " + code));
+                    } else {
+//                        Log.i(TAG, "onPreviewFrame: ft costTime = " + (System.currentTimeMillis() - ftStartTime) + "ms");
+                    }
+                    /*
+                     * 非多人脸模式只保留最大的人脸；
+                     * 多人脸模式保留所有人脸，活体检测按livenessMode逐个人脸或只对最大人脸进行
+                     */
+                    if (!multiFace) {
+                        TrackUtil.keepMaxFace(faceInfoList);
+                    }
+
+                    //映射回原图坐标前保留检测图像坐标的人脸，活体检测需在检测图像上进行
+                    detectFaceInfoList.clear();
+                    detectFaceInfoList.addAll(faceInfoList);
+                    if (detectScale > 1 || roi != null) {
+                        mapToPreviewSize(faceInfoList);
+                    }
+                    refreshTrackId(faceInfoList);
+                    processAttributes(nv21, detectNv21, detectWidth, detectHeight);
+                }
+                if (frameRateGovernor != null) {
+                    frameRateGovernor.onFrameProcessed(faceInfoList.size());
                 }
             }
-            return facePreviewInfoList;
+            submitBestShots();
+            return buildFacePreviewInfoList();
         } else {
             facePreviewInfoList.clear();
             return facePreviewInfoList;
         }
     }
 
+    /**
+     * 只对需要活体检测且没有有效活体结果的人脸进行活体检测，关闭活体检测时跳过；正在择优的人脸同时获取角度并为当前帧打分。
+     * 只有一个人脸需要处理时合并为一次process调用；引擎的活体检测每次只支持一个人脸，多个人脸需要活体检测时逐个处理
+     *
+     * @param previewNv21 预览帧
+     * @param nv21        检测图像
+     * @param width       检测图像宽度
+     * @param height      检测图像高度
+     */
+    private void processAttributes(byte[] previewNv21, byte[] nv21, int width, int height) {
+        livenessInfoList.clear();
+        processFaceInfoList.clear();
+        if (processFaceIndexes.length < faceInfoList.size()) {
+            processFaceIndexes = new int[faceInfoList.size()];
+            processNeedLiveness = new boolean[faceInfoList.size()];
+        }
+        long now = System.currentTimeMillis();
+        int primaryIndex = TrackUtil.getMaxFaceIndex(faceInfoList);
+        primaryTrackId = primaryIndex == -1 ? -1 : faceTracker.getTrackId(primaryIndex);
+        int livenessNum = 0;
+        boolean needAnyAngle = false;
+        for (int i = 0; i < faceInfoList.size(); i++) {
+            int trackId = faceTracker.getTrackId(i);
+            boolean livenessRequired = livenessEnabled && (livenessMode == LIVENESS_MODE_EACH || i == primaryIndex);
+            LivenessInfo livenessInfo = livenessRequired ? livenessCache.get(trackId, now) : null;
+            livenessInfoList.add(livenessInfo);
+            boolean needLiveness = livenessRequired && livenessInfo == null;
+            boolean needAngle = bestShotSelector != null && bestShotSelector.isOpen(trackId);
+            if (needLiveness) {
+                livenessNum++;
+            }
+            needAnyAngle |= needAngle;
+            if (needLiveness || needAngle) {
+                processFaceIndexes[processFaceInfoList.size()] = i;
+                processNeedLiveness[processFaceInfoList.size()] = needLiveness;
+                processFaceInfoList.add(detectFaceInfoList.get(i));
+            }
+        }
+        if (processFaceInfoList.isEmpty()) {
+            return;
+        }
+        if (frameRateGovernor != null) {
+            frameRateGovernor.onStageStart(FrameRateGovernor.STAGE_PROCESS);
+        }
+        boolean angleValid = false;
+        if (processFaceInfoList.size() == 1 || livenessNum == 0) {
+            int combinedMask = (livenessNum > 0 ? FaceEngine.ASF_LIVENESS : 0) | (needAnyAngle ? FaceEngine.ASF_FACE3DANGLE : 0);
+            if (processFaces(nv21, width, height, processFaceInfoList, combinedMask)) {
+                if (livenessNum > 0 && fetchLiveness(processFaceInfoList.size())) {
+                    for (int k = 0; k < processFaceInfoList.size(); k++) {
+                        if (processNeedLiveness[k]) {
+                            applyLiveness(processFaceIndexes[k], livenessResultList.get(k), now);
+                        }
+                    }
+                }
+                angleValid = needAnyAngle && fetchFace3DAngle(processFaceInfoList.size());
+            }
+        } else {
+            //先批量获取角度，再逐个人脸进行活体检测
+            if (needAnyAngle && processFaces(nv21, width, height, processFaceInfoList, FaceEngine.ASF_FACE3DANGLE)) {
+                angleValid = fetchFace3DAngle(processFaceInfoList.size());
+            }
+            for (int k = 0; k < processFaceInfoList.size(); k++) {
+                if (!processNeedLiveness[k]) {
+                    continue;
+                }
+                singleFaceInfoList.clear();
+                singleFaceInfoList.add(processFaceInfoList.get(k));
+                if (processFaces(nv21, width, height, singleFaceInfoList, FaceEngine.ASF_LIVENESS) && fetchLiveness(1)) {
+                    applyLiveness(processFaceIndexes[k], livenessResultList.get(0), now);
+                }
+            }
+        }
+        if (frameRateGovernor != null) {
+            frameRateGovernor.onStageEnd(FrameRateGovernor.STAGE_PROCESS);
+        }
+        if (bestShotSelector == null) {
+            return;
+        }
+        for (int k = 0; k < processFaceInfoList.size(); k++) {
+            int i = processFaceIndexes[k];
+            int trackId = faceTracker.getTrackId(i);
+            if (bestShotSelector.isOpen(trackId)) {
+                //获取角度失败时只按大小和清晰度打分
+                bestShotSelector.offer(trackId, previewNv21, previewSize.width, previewSize.height, faceInfoList.get(i),
+                        angleValid ? face3DAngleList.get(k) : null);
+            }
+        }
+    }
+
+    private boolean processFaces(byte[] nv21, int width, int height, List<FaceInfo> faceInfoList, int combinedMask) {
+        int code = faceEngine.process(nv21, width, height, FaceEngine.CP_PAF_NV21, faceInfoList, combinedMask);
+        if (code != ErrorInfo.MOK) {
+            faceListener.onFail(new Exception("process failed,code is " + code));
+            return false;
+        }
+        return true;
+    }
+
+    private boolean fetchLiveness(int faceNum) {
+        int code = faceEngine.getLiveness(livenessResultList);
+        if (code != ErrorInfo.MOK) {
+            faceListener.onFail(new Exception("getLiveness failed,code is " + code));
+            return false;
+        }
+        return livenessResultList.size() == faceNum;
+    }
+
+    private boolean fetchFace3DAngle(int faceNum) {
+        int code = faceEngine.getFace3DAngle(face3DAngleList);
+        if (code != ErrorInfo.MOK) {
+            faceListener.onFail(new Exception("getFace3DAngle failed,code is " + code));
+            return false;
+        }
+        return face3DAngleList.size() == faceNum;
+    }
+
+    private void applyLiveness(int index, LivenessInfo livenessInfo, long now) {
+        livenessInfoList.set(index, livenessInfo);
+        livenessCache.put(faceTracker.getTrackId(index), livenessInfo, now);
+    }
+
+    /**
+     * 判断trackId对应的人脸是否需要通过活体检测才能进行识别
+     *
+     * @param trackId trackId
+     * @return 开启活体检测，且为{@link #LIVENESS_MODE_EACH}或该人脸为最大人脸时返回true
+     */
+    public boolean isLivenessRequired(int trackId) {
+        return livenessEnabled && (livenessMode == LIVENESS_MODE_EACH || trackId == primaryTrackId);
+    }
+
+    /**
+     * 将择优结束的最优帧提交给fr线程
+     */
+    private void submitBestShots() {
+        if (bestShotSelector == null || !bestShotSelector.hasOpen()) {
+            return;
+        }
+        List<BestShotSelector.Candidate> readyList = bestShotSelector.pollReady(faceTracker);
+        for (int i = 0; i < readyList.size(); i++) {
+            BestShotSelector.Candidate candidate = readyList.get(i);
+            executeFaceFeatureRequest(candidate.getNv21(), candidate.getFaceInfo(), candidate.getWidth(), candidate.getHeight(),
+                    FaceEngine.CP_PAF_NV21, candidate.getTrackId());
+            //裁剪的人脸区域已交给fr任务
+            bestShotSelector.releaseFrame(candidate);
+        }
+    }
+
+    /**
+     * 开启或关闭活体检测，关闭时{@link FacePreviewInfo#getLivenessInfo()}为null
+     *
+     * @param livenessEnabled 是否开启
+     */
+    public void setLivenessEnabled(boolean livenessEnabled) {
+        this.livenessEnabled = livenessEnabled;
+    }
+
+    private List<FacePreviewInfo> buildFacePreviewInfoList() {
+        facePreviewInfoList.clear();
+        if (livenessInfoList.size() == faceInfoList.size()) {
+            for (int i = 0; i < faceInfoList.size(); i++) {
+                if (i == facePreviewInfoHolders.size()) {
+                    facePreviewInfoHolders.add(new FacePreviewInfo(null, null, 0));
+                }
+                FacePreviewInfo facePreviewInfo = facePreviewInfoHolders.get(i);
+                facePreviewInfo.setFaceInfo(faceInfoList.get(i));
+                facePreviewInfo.setLivenessInfo(livenessInfoList.get(i));
+                facePreviewInfo.setTrackId(faceTracker.getTrackId(i));
+                facePreviewInfoList.add(facePreviewInfo);
+            }
+        }
+        return facePreviewInfoList;
+    }
+
+    /**
+     * 当前帧是否可以不做检测，只推算人脸框
+     */
+    private boolean shouldPredict() {
+        return detectInterval > 1
+                && faceEngine != null
+                && faceTracker.getTrackCount() > 0
+                && faceTracker.getTrackCount() == faceInfoList.size()
+                && faceTracker.getFramesSinceDetect() < detectInterval - 1
+                && faceTracker.getConfidence() >= PREDICT_MIN_CONFIDENCE;
+    }
+
+    /**
+     * 按运动模型推算当前帧的人脸框，直接修改faceInfoList中的人脸框，活体结果沿用上一次检测的结果
+     */
+    private void predictFaceInfoList() {
+        faceTracker.predict();
+        for (int i = 0; i < faceInfoList.size(); i++) {
+            Rect rect = faceInfoList.get(i).getRect();
+            faceTracker.getTrackRect(i, rect);
+            rect.intersect(0, 0, previewSize.width, previewSize.height);
+        }
+    }
+
+    /**
+     * 将缩小、裁剪后图像上的人脸框映射回原图坐标
+     *
+     * @param faceInfoList 人脸列表，元素会被替换为{@link #previewFaceInfoHolders}中原图坐标的人脸信息，原有元素不变
+     */
+    private void mapToPreviewSize(List<FaceInfo> faceInfoList) {
+        int offsetX = roi == null ? 0 : roi.left;
+        int offsetY = roi == null ? 0 : roi.top;
+        for (int i = 0; i < faceInfoList.size(); i++) {
+            FaceInfo faceInfo = faceInfoList.get(i);
+            FaceInfo holder = i < previewFaceInfoHolders.size() ? previewFaceInfoHolders.get(i) : null;
+            //人脸方向变化时才重新创建
+            if (holder == null || holder.getOrient() != faceInfo.getOrient()) {
+                holder = new FaceInfo(new Rect(), faceInfo.getOrient());
+                if (i < previewFaceInfoHolders.size()) {
+                    previewFaceInfoHolders.set(i, holder);
+                } else {
+                    previewFaceInfoHolders.add(holder);
+                }
+            }
+            Rect rect = faceInfo.getRect();
+            holder.getRect().set(
+                    Math.max(0, rect.left * detectScale + offsetX),
+                    Math.max(0, rect.top * detectScale + offsetY),
+                    Math.min(previewSize.width, rect.right * detectScale + offsetX),
+                    Math.min(previewSize.height, rect.bottom * detectScale + offsetY));
+            faceInfoList.set(i, holder);
+        }
+    }
+
     /**
      * 人脸解析的线程
      */
@@ -159,6 +691,9 @@ public class FaceHelper {
                 return;
             }
             this.nv21Data = nv21Data;
+            if (frameBufferPool != null) {
+                frameBufferPool.retain(nv21Data);
+            }
             this.faceInfo = new FaceInfo(faceInfo);
             this.width = width;
             this.height = height;
@@ -168,32 +703,47 @@ public class FaceHelper {
 
         @Override
         public void run() {
-            frThreadRunning = true;
-            if (faceListener != null && nv21Data != null) {
-                if (faceEngine != null) {
+            FaceListener listener = faceListener;
+            if (listener != null && nv21Data != null) {
+                FaceEngineLease frEngineLease = frEngineShared ? null : frEngineQueue.poll();
+                if (frEngineShared || frEngineLease != null) {
                     FaceFeature faceFeature = new FaceFeature();
                     long frStartTime = System.currentTimeMillis();
                     int frCode;
-                    synchronized (FaceHelper.this) {
-                        frCode = faceEngine.extractFaceFeature(nv21Data, width, height, format, faceInfo, faceFeature);
+                    if (frEngineShared) {
+                        synchronized (faceEngine) {
+                            frCode = faceEngine.extractFaceFeature(nv21Data, width, height, format, faceInfo, faceFeature);
+                        }
+                    } else {
+                        try {
+                            frCode = frEngineLease.getFaceEngine().extractFaceFeature(nv21Data, width, height, format, faceInfo, faceFeature);
+                        } finally {
+                            recycleFrEngine(frEngineLease);
+                        }
                     }
                     if (frCode == ErrorInfo.MOK) {
 //                        Log.i(TAG, "run: fr costTime = " + (System.currentTimeMillis() - frStartTime) + "ms");
-                        faceListener.onFaceFeatureInfoGet(faceFeature, trackId);
+                        listener.onFaceFeatureInfoGet(faceFeature, trackId);
                     } else {
-                        faceListener.onFaceFeatureInfoGet(null, trackId);
-                        faceListener.onFail(new Exception("fr failed errorCode is " + frCode));
+                        listener.onFaceFeatureInfoGet(null, trackId);
+                        listener.onFail(new Exception("fr failed errorCode is " + frCode));
                     }
                 } else {
-                    faceListener.onFaceFeatureInfoGet(null, trackId);
-                    faceListener.onFail(new Exception("fr failed ,frEngine is null"));
-                }
-                if (faceRecognizeRunnables != null && faceRecognizeRunnables.size() > 0) {
-                    executor.execute(faceRecognizeRunnables.poll());
+                    listener.onFaceFeatureInfoGet(null, trackId);
+                    listener.onFail(new Exception("fr failed ,frEngine is null"));
                 }
             }
+            releaseFrame();
+        }
+
+        /**
+         * 释放持有的帧数据，重复调用无影响
+         */
+        private synchronized void releaseFrame() {
+            if (nv21Data != null && frameBufferPool != null) {
+                frameBufferPool.release(nv21Data);
+            }
             nv21Data = null;
-            frThreadRunning = false;
         }
     }
 
@@ -204,45 +754,10 @@ public class FaceHelper {
      * @param ftFaceList 传入的人脸列表
      */
     private void refreshTrackId(List<FaceInfo> ftFaceList) {
-        currentTrackIdList.clear();
-        //每项预先填充-1
-        for (int i = 0; i < ftFaceList.size(); i++) {
-            currentTrackIdList.add(-1);
-        }
-        //前一次无人脸现在有人脸，填充新增TrackId
-        if (formerTrackIdList.size() == 0) {
-            for (int i = 0; i < ftFaceList.size(); i++) {
-                currentTrackIdList.set(i, ++currentTrackId);
-            }
-        } else {
-            //前后都有人脸,对于每一个人脸框
-            for (int i = 0; i < ftFaceList.size(); i++) {
-                //遍历上一次人脸框
-                for (int j = 0; j < formerFaceRectList.size(); j++) {
-                    //若是同一张人脸
-                    if (TrackUtil.isSameFace(SIMILARITY_RECT, formerFaceRectList.get(j), ftFaceList.get(i).getRect())) {
-                        //记录ID
-                        currentTrackIdList.set(i, formerTrackIdList.get(j));
-                        break;
-                    }
-                }
-            }
-        }
-        //上一次人脸框不存在此人脸，新增
-        for (int i = 0; i < currentTrackIdList.size(); i++) {
-            if (currentTrackIdList.get(i) == -1) {
-                currentTrackIdList.set(i, ++currentTrackId);
-            }
-        }
-        formerTrackIdList.clear();
-        formerFaceRectList.clear();
-        for (int i = 0; i < ftFaceList.size(); i++) {
-            formerFaceRectList.add(new Rect(ftFaceList.get(i).getRect()));
-            formerTrackIdList.add(currentTrackIdList.get(i));
-        }
-
+        faceTracker.update(ftFaceList);
         //刷新nameMap
-        clearLeftName(currentTrackIdList);
+        clearLeftName();
+        livenessCache.retainTracks(faceTracker);
     }
 
     /**
@@ -251,7 +766,7 @@ public class FaceHelper {
      * @return 当前trackId
      */
     public int getCurrentTrackId() {
-        return currentTrackId;
+        return faceTracker.getCurrentTrackId();
     }
 
     /**
@@ -261,40 +776,62 @@ public class FaceHelper {
      * @param name    trackId对应的人脸
      */
     public void addName(int trackId, String name) {
-        if (nameMap != null) {
+        synchronized (nameMap) {
             nameMap.put(trackId, name);
         }
     }
 
     public String getName(int trackId) {
-        return nameMap == null ? null : nameMap.get(trackId);
+        synchronized (nameMap) {
+            return nameMap.get(trackId);
+        }
     }
 
     /**
      * 清除map中已经离开的人脸
-     *
-     * @param trackIdList 最新的trackIdList
      */
-    private void clearLeftName(List<Integer> trackIdList) {
-        Set<Integer> keySet = nameMap.keySet();
-        for (Integer integer : keySet) {
-            if (!trackIdList.contains(integer)) {
-                nameMap.remove(integer);
+    private void clearLeftName() {
+        synchronized (nameMap) {
+            for (int i = nameMap.size() - 1; i >= 0; i--) {
+                if (!faceTracker.containsTrackId(nameMap.keyAt(i))) {
+                    nameMap.removeAt(i);
+                }
             }
         }
     }
 
     public static final class Builder {
+        private Context context;
         private FaceEngine faceEngine;
         private Camera.Size previewSize;
         private FaceListener faceListener;
         private int frThreadNum;
         private int currentTrackId;
+        private FrameBufferPool frameBufferPool;
+        private FrameRateGovernor frameRateGovernor;
+        private MotionGate motionGate;
+        private int detectScale;
+        private Rect roi;
+        private int detectInterval;
+        private boolean livenessEnabled = true;
+        private long livenessTtl;
+        private long bestShotWindow;
+        private boolean multiFace;
+        private int livenessMode = LIVENESS_MODE_EACH;
 
         public Builder() {
         }
 
 
+        /**
+         * 用于为fr线程创建独立的引擎；不设置时fr与预览共用{@link #faceEngine(FaceEngine)}，只有一个fr线程
+         */
+        public Builder context(Context val) {
+            context = val;
+            return this;
+        }
+
+
         public Builder faceEngine(FaceEngine val) {
             faceEngine = val;
             return this;
@@ -322,6 +859,87 @@ public class FaceHelper {
             return this;
         }
 
+        public Builder frameBufferPool(FrameBufferPool val) {
+            frameBufferPool = val;
+            return this;
+        }
+
+        public Builder frameRateGovernor(FrameRateGovernor val) {
+            frameRateGovernor = val;
+            return this;
+        }
+
+        public Builder motionGate(MotionGate val) {
+            motionGate = val;
+            return this;
+        }
+
+        /**
+         * 人脸检测时的缩小倍数，建议为2或4，预览分辨率较高时可降低检测耗时
+         */
+        public Builder detectScale(int val) {
+            detectScale = val;
+            return this;
+        }
+
+        /**
+         * 感兴趣区域，预览帧坐标，会被对齐为宽度4的倍数、高度2的倍数
+         */
+        public Builder roi(Rect val) {
+            roi = val;
+            return this;
+        }
+
+        /**
+         * 检测间隔帧数，大于1时只在每detectInterval帧中做一次检测，其余帧按运动模型推算人脸框；
+         * 有人脸新增、离开或推算偏差较大时会恢复每帧检测
+         */
+        public Builder detectInterval(int val) {
+            detectInterval = val;
+            return this;
+        }
+
+        /**
+         * 是否进行活体检测，默认开启，也可通过{@link FaceHelper#setLivenessEnabled(boolean)}修改
+         */
+        public Builder livenessEnabled(boolean val) {
+            livenessEnabled = val;
+            return this;
+        }
+
+        /**
+         * 活体结果的缓存有效期，单位为毫秒，有效期内的人脸不再进行活体检测
+         */
+        public Builder livenessTtl(long val) {
+            livenessTtl = val;
+            return this;
+        }
+
+        /**
+         * 特征提取前的择优时间，单位为毫秒，大于0时在该时间内按人脸大小、角度和清晰度选出最优的一帧再提取特征。
+         * 角度需要ft引擎初始化时包含{@link FaceEngine#ASF_FACE3DANGLE}，否则只按大小和清晰度择优
+         */
+        public Builder bestShotWindow(long val) {
+            bestShotWindow = val;
+            return this;
+        }
+
+        /**
+         * 多人脸模式，开启后识别画面中的所有人脸，否则只识别最大的人脸
+         */
+        public Builder multiFace(boolean val) {
+            multiFace = val;
+            return this;
+        }
+
+        /**
+         * 活体检测模式，{@link #LIVENESS_MODE_EACH}或{@link #LIVENESS_MODE_PRIMARY}，只在多人脸模式下有区别
+         */
+        public Builder livenessMode(int val) {
+            livenessMode = val;
+            return this;
+        }
+
         public FaceHelper build() {
             return new FaceHelper(this);
         }
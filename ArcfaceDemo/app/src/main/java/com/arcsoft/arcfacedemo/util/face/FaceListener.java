@@ -24,4 +24,11 @@ public interface FaceListener {
      * @param requestId 请求码
      */
     void  onFaceFeatureInfoGet(@Nullable FaceFeature faceFeature, Integer requestId);
+
+    /**
+     * FR繁忙，请求未执行即被丢弃，此时不会回调{@link #onFaceFeatureInfoGet(FaceFeature, Integer)}
+     *
+     * @param requestId 请求码
+     */
+    void onFaceFeatureRejected(Integer requestId);
 }
@@ -0,0 +1,296 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.graphics.Rect;
+
+import com.arcsoft.face.FaceInfo;
+
+import java.util.List;
+
+/**
+ * 人脸追踪，为每一帧的人脸分配trackId：与上一帧的人脸框按交并比（IoU）贪心匹配，匹配成功的沿用上一帧的trackId，
+ * 未匹配的分配新的trackId。人脸框和trackId保存在预分配的基本类型数组中，人脸数不超过容量时每帧不分配内存。
+ * <p>
+ * 每个人脸按匀速运动模型估计速度，未做检测的帧可调用{@link #predict()}推算人脸框的位置；
+ * 下一次检测时先将人脸框推算到当前帧再做匹配，推算结果与检测结果的交并比作为预测的置信度。
+ * <p>
+ * 该类不是线程安全的，需在同一个线程中调用{@link #update}和{@link #predict()}
+ */
+public class FaceTracker {
+    /**
+     * 默认的交并比阈值，低于该值不认为是同一张人脸
+     */
+    private static final float DEFAULT_IOU_THRESHOLD = 0.3f;
+    /**
+     * 速度的平滑系数，越大越相信最新一次的测量值
+     */
+    private static final float VELOCITY_ALPHA = 0.5f;
+
+    private float iouThreshold = DEFAULT_IOU_THRESHOLD;
+    private int capacity;
+    private volatile int currentTrackId;
+
+    /**
+     * 上一帧的人脸框（已推算到最近一帧），每4个元素为一个人脸的left、top、right、bottom
+     */
+    private float[] formerRects;
+    private int[] formerTrackIds;
+    /**
+     * 上一次检测到的人脸中心点，每2个元素为一个人脸的x、y
+     */
+    private float[] formerCenters;
+    /**
+     * 人脸中心点每帧的位移，每2个元素为一个人脸的x、y
+     */
+    private float[] formerVelocities;
+    private int formerCount = 0;
+    private float[] currentRects;
+    private int[] currentTrackIds;
+    private float[] currentCenters;
+    private float[] currentVelocities;
+    private int currentCount = 0;
+    /**
+     * 当前帧和上一帧人脸两两之间的交并比，下标为 current * capacity + former
+     */
+    private float[] iouMatrix;
+    private boolean[] formerMatched;
+    /**
+     * 距离上一次检测的帧数
+     */
+    private int framesSinceDetect = 0;
+    /**
+     * 上一次检测时推算结果的置信度
+     */
+    private float confidence = 0;
+
+    /**
+     * @param capacity       预分配的人脸数，建议与ft初始化时的maxFaceNum相同，超出时会扩容
+     * @param currentTrackId 已分配的最大trackId，新的trackId从该值之后开始
+     */
+    public FaceTracker(int capacity, int currentTrackId) {
+        this.currentTrackId = currentTrackId;
+        allocate(Math.max(capacity, 1));
+    }
+
+    public void setIouThreshold(float iouThreshold) {
+        this.iouThreshold = iouThreshold;
+    }
+
+    /**
+     * 使用当前帧的检测结果更新追踪结果
+     *
+     * @param faceInfoList 当前帧的人脸
+     */
+    public void update(List<FaceInfo> faceInfoList) {
+        int faceNum = faceInfoList.size();
+        if (faceNum > capacity) {
+            grow(faceNum);
+        }
+        //0.将上一帧的人脸框推算到当前帧
+        advance();
+        int elapsedFrames = framesSinceDetect;
+        //1.记录当前帧的人脸框，计算与上一帧人脸框的交并比
+        currentCount = faceNum;
+        for (int i = 0; i < faceNum; i++) {
+            Rect rect = faceInfoList.get(i).getRect();
+            int offset = i * 4;
+            currentRects[offset] = rect.left;
+            currentRects[offset + 1] = rect.top;
+            currentRects[offset + 2] = rect.right;
+            currentRects[offset + 3] = rect.bottom;
+            currentCenters[i * 2] = rect.exactCenterX();
+            currentCenters[i * 2 + 1] = rect.exactCenterY();
+            currentTrackIds[i] = -1;
+            for (int j = 0; j < formerCount; j++) {
+                iouMatrix[i * capacity + j] = iou(currentRects, offset, formerRects, j * 4);
+            }
+        }
+        for (int j = 0; j < formerCount; j++) {
+            formerMatched[j] = false;
+        }
+        //2.贪心匹配：每次取交并比最大的一对，直到没有超过阈值的配对，匹配成功的人脸更新速度
+        int matchNum = Math.min(currentCount, formerCount);
+        int matchedCount = 0;
+        float minIou = 1;
+        for (int n = 0; n < matchNum; n++) {
+            int bestCurrent = -1;
+            int bestFormer = -1;
+            float bestIou = iouThreshold;
+            for (int i = 0; i < currentCount; i++) {
+                if (currentTrackIds[i] != -1) {
+                    continue;
+                }
+                for (int j = 0; j < formerCount; j++) {
+                    if (!formerMatched[j] && iouMatrix[i * capacity + j] >= bestIou) {
+                        bestIou = iouMatrix[i * capacity + j];
+                        bestCurrent = i;
+                        bestFormer = j;
+                    }
+                }
+            }
+            if (bestCurrent == -1) {
+                break;
+            }
+            currentTrackIds[bestCurrent] = formerTrackIds[bestFormer];
+            formerMatched[bestFormer] = true;
+            for (int k = 0; k < 2; k++) {
+                float velocity = formerVelocities[bestFormer * 2 + k];
+                float measured = (currentCenters[bestCurrent * 2 + k] - formerCenters[bestFormer * 2 + k]) / elapsedFrames;
+                currentVelocities[bestCurrent * 2 + k] = velocity + VELOCITY_ALPHA * (measured - velocity);
+            }
+            matchedCount++;
+            minIou = Math.min(minIou, bestIou);
+        }
+        //3.未匹配的人脸分配新的trackId，速度置0
+        for (int i = 0; i < currentCount; i++) {
+            if (currentTrackIds[i] == -1) {
+                currentTrackIds[i] = ++currentTrackId;
+                currentVelocities[i * 2] = 0;
+                currentVelocities[i * 2 + 1] = 0;
+            }
+        }
+        //有人脸新增或离开时推算结果不可靠
+        confidence = (currentCount > 0 && matchedCount == currentCount && matchedCount == formerCount) ? minIou : 0;
+        framesSinceDetect = 0;
+        //4.当前帧作为下一次的上一帧
+        float[] tempRects = formerRects;
+        formerRects = currentRects;
+        currentRects = tempRects;
+        int[] tempTrackIds = formerTrackIds;
+        formerTrackIds = currentTrackIds;
+        currentTrackIds = tempTrackIds;
+        float[] tempCenters = formerCenters;
+        formerCenters = currentCenters;
+        currentCenters = tempCenters;
+        float[] tempVelocities = formerVelocities;
+        formerVelocities = currentVelocities;
+        currentVelocities = tempVelocities;
+        formerCount = currentCount;
+    }
+
+    /**
+     * 未做检测的帧调用，按每个人脸的速度推算人脸框的位置，trackId不变
+     */
+    public void predict() {
+        advance();
+    }
+
+    /**
+     * @return 最近一次更新后的人脸数
+     */
+    public int getTrackCount() {
+        return formerCount;
+    }
+
+    /**
+     * @param index 人脸在最近一次传入的列表中的下标
+     * @return 该人脸的trackId
+     */
+    public int getTrackId(int index) {
+        return formerTrackIds[index];
+    }
+
+    /**
+     * 获取人脸框，调用{@link #predict()}后为推算的位置
+     *
+     * @param index 人脸在最近一次传入的列表中的下标
+     * @param rect  输出的人脸框
+     */
+    public void getTrackRect(int index, Rect rect) {
+        int offset = index * 4;
+        rect.set(Math.round(formerRects[offset]), Math.round(formerRects[offset + 1]),
+                Math.round(formerRects[offset + 2]), Math.round(formerRects[offset + 3]));
+    }
+
+    /**
+     * @param trackId trackId
+     * @return 最近一次更新后是否包含该trackId
+     */
+    public boolean containsTrackId(int trackId) {
+        for (int i = 0; i < formerCount; i++) {
+            if (formerTrackIds[i] == trackId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 距离上一次检测的帧数
+     */
+    public int getFramesSinceDetect() {
+        return framesSinceDetect;
+    }
+
+    /**
+     * @return 上一次检测时推算结果与检测结果的最小交并比，有人脸新增或离开时为0
+     */
+    public float getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * @return 已分配的最大trackId
+     */
+    public int getCurrentTrackId() {
+        return currentTrackId;
+    }
+
+    /**
+     * 将所有人脸框按速度平移一帧
+     */
+    private void advance() {
+        for (int i = 0; i < formerCount; i++) {
+            float dx = formerVelocities[i * 2];
+            float dy = formerVelocities[i * 2 + 1];
+            int offset = i * 4;
+            formerRects[offset] += dx;
+            formerRects[offset + 1] += dy;
+            formerRects[offset + 2] += dx;
+            formerRects[offset + 3] += dy;
+        }
+        framesSinceDetect++;
+    }
+
+    private static float iou(float[] rects1, int offset1, float[] rects2, int offset2) {
+        float left = Math.max(rects1[offset1], rects2[offset2]);
+        float top = Math.max(rects1[offset1 + 1], rects2[offset2 + 1]);
+        float right = Math.min(rects1[offset1 + 2], rects2[offset2 + 2]);
+        float bottom = Math.min(rects1[offset1 + 3], rects2[offset2 + 3]);
+        if (left >= right || top >= bottom) {
+            return 0;
+        }
+        float innerArea = (right - left) * (bottom - top);
+        float area1 = (rects1[offset1 + 2] - rects1[offset1]) * (rects1[offset1 + 3] - rects1[offset1 + 1]);
+        float area2 = (rects2[offset2 + 2] - rects2[offset2]) * (rects2[offset2 + 3] - rects2[offset2 + 1]);
+        return innerArea / (area1 + area2 - innerArea);
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        formerRects = new float[capacity * 4];
+        formerTrackIds = new int[capacity];
+        formerCenters = new float[capacity * 2];
+        formerVelocities = new float[capacity * 2];
+        currentRects = new float[capacity * 4];
+        currentTrackIds = new int[capacity];
+        currentCenters = new float[capacity * 2];
+        currentVelocities = new float[capacity * 2];
+        iouMatrix = new float[capacity * capacity];
+        formerMatched = new boolean[capacity];
+    }
+
+    /**
+     * 扩容，保留上一帧的结果
+     */
+    private void grow(int minCapacity) {
+        float[] oldFormerRects = formerRects;
+        int[] oldFormerTrackIds = formerTrackIds;
+        float[] oldFormerCenters = formerCenters;
+        float[] oldFormerVelocities = formerVelocities;
+        allocate(Math.max(minCapacity, capacity * 2));
+        System.arraycopy(oldFormerRects, 0, formerRects, 0, formerCount * 4);
+        System.arraycopy(oldFormerTrackIds, 0, formerTrackIds, 0, formerCount);
+        System.arraycopy(oldFormerCenters, 0, formerCenters, 0, formerCount * 2);
+        System.arraycopy(oldFormerVelocities, 0, formerVelocities, 0, formerCount * 2);
+    }
+}
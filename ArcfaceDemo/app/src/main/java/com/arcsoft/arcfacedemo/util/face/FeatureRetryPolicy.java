@@ -0,0 +1,276 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * 按trackId控制特征提取和搜索失败后的重试：每次失败后的等待时间按指数增长，
+ * 搜索未命中的次数达到{@link #maxAttempts}，或出错的次数达到{@link #maxFailures}（如人脸库为空、引擎未初始化）后
+ * 认定为无法识别的人脸，该trackId不再重试，直到人脸离开。
+ * FR队列已满被丢弃的请求和活体等待超时只推迟重试，不计入出错次数。
+ * <p>
+ * 各方法可在不同线程中调用
+ */
+public class FeatureRetryPolicy {
+    private static final String TAG = "FeatureRetryPolicy";
+
+    /**
+     * 第一次失败后的等待时间，单位为毫秒
+     */
+    private long baseDelay = 200;
+    /**
+     * 等待时间的上限，单位为毫秒
+     */
+    private long maxDelay = 5000;
+    /**
+     * 搜索未命中的最大次数
+     */
+    private int maxAttempts = 3;
+    /**
+     * 出错的最大次数
+     */
+    private int maxFailures = 10;
+
+    private final SparseArray<RetryState> retryStates = new SparseArray<>();
+
+    /**
+     * 统计计数
+     */
+    private int requestCount = 0;
+    private int failureCount = 0;
+    private int missCount = 0;
+    private int busyCount = 0;
+    private int timeoutCount = 0;
+    private int backoffSkipCount = 0;
+    private int unknownCount = 0;
+
+    private FeatureRetryPolicy(Builder builder) {
+        if (builder.baseDelay > 0) {
+            baseDelay = builder.baseDelay;
+        }
+        if (builder.maxDelay > 0) {
+            maxDelay = builder.maxDelay;
+        }
+        if (builder.maxAttempts > 0) {
+            maxAttempts = builder.maxAttempts;
+        } else if (builder.maxAttempts != 0) {
+            Log.e(TAG, "maxAttempts must > 0,now using default value:" + maxAttempts);
+        }
+        if (builder.maxFailures > 0) {
+            maxFailures = builder.maxFailures;
+        } else if (builder.maxFailures != 0) {
+            Log.e(TAG, "maxFailures must > 0,now using default value:" + maxFailures);
+        }
+    }
+
+    /**
+     * 判断失败的trackId当前是否可以重新请求特征
+     *
+     * @param trackId trackId
+     * @return 是否可以重试，等待时间未到或已认定为未注册人脸时返回false
+     */
+    public synchronized boolean canRetry(int trackId) {
+        RetryState retryState = retryStates.get(trackId);
+        if (retryState == null) {
+            return true;
+        }
+        if (retryState.unknown || SystemClock.elapsedRealtime() < retryState.nextRetryTime) {
+            backoffSkipCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 记录一次特征请求
+     */
+    public synchronized void onRequest() {
+        requestCount++;
+    }
+
+    /**
+     * 特征提取或搜索过程出错，等待一段时间后重试
+     *
+     * @param trackId trackId
+     * @return 是否已认定为无法识别的人脸，为true时不会再重试
+     */
+    public synchronized boolean onFailure(int trackId) {
+        failureCount++;
+        RetryState retryState = getRetryState(trackId);
+        retryState.errorCount++;
+        if (retryState.errorCount >= maxFailures) {
+            markUnknown(trackId, retryState);
+            return true;
+        }
+        backoff(retryState);
+        return false;
+    }
+
+    /**
+     * 搜索完成但人脸库中没有匹配的人脸
+     *
+     * @param trackId trackId
+     * @return 是否已认定为未注册的人脸，为true时不会再重试
+     */
+    public synchronized boolean onSearchMissed(int trackId) {
+        missCount++;
+        RetryState retryState = getRetryState(trackId);
+        retryState.missCount++;
+        if (retryState.missCount >= maxAttempts) {
+            markUnknown(trackId, retryState);
+            return true;
+        }
+        backoff(retryState);
+        return false;
+    }
+
+    /**
+     * FR繁忙，请求未执行即被丢弃。与人脸本身无关，等待{@link #baseDelay}后重试，不增加等待时间
+     *
+     * @param trackId trackId
+     */
+    public synchronized void onBusy(int trackId) {
+        busyCount++;
+        RetryState retryState = getRetryState(trackId);
+        retryState.nextRetryTime = SystemClock.elapsedRealtime() + baseDelay;
+    }
+
+    /**
+     * 特征提取完成但等待活体结果超时，等待一段时间后重试，不会因此认定为无法识别的人脸
+     *
+     * @param trackId trackId
+     */
+    public synchronized void onTimeout(int trackId) {
+        timeoutCount++;
+        backoff(getRetryState(trackId));
+    }
+
+    /**
+     * 删除已经离开的人脸
+     *
+     * @param trackId trackId
+     */
+    public synchronized void remove(int trackId) {
+        retryStates.remove(trackId);
+    }
+
+    public synchronized void clear() {
+        retryStates.clear();
+    }
+
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized int getFailureCount() {
+        return failureCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getBusyCount() {
+        return busyCount;
+    }
+
+    public synchronized int getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public synchronized int getBackoffSkipCount() {
+        return backoffSkipCount;
+    }
+
+    public synchronized int getUnknownCount() {
+        return unknownCount;
+    }
+
+    /**
+     * 输出统计计数，一般在识别结束时调用
+     */
+    public synchronized void logStatistics() {
+        Log.i(TAG, "logStatistics: requests = " + requestCount + " failures = " + failureCount + " misses = " + missCount
+                + " busy = " + busyCount + " timeouts = " + timeoutCount + " backoffSkips = " + backoffSkipCount
+                + " unknowns = " + unknownCount);
+    }
+
+    private RetryState getRetryState(int trackId) {
+        RetryState retryState = retryStates.get(trackId);
+        if (retryState == null) {
+            retryState = new RetryState();
+            retryStates.put(trackId, retryState);
+        }
+        return retryState;
+    }
+
+    private void markUnknown(int trackId, RetryState retryState) {
+        retryState.unknown = true;
+        unknownCount++;
+        Log.i(TAG, "markUnknown: trackId " + trackId + " is unknown, errors = " + retryState.errorCount + " misses = " + retryState.missCount);
+    }
+
+    private void backoff(RetryState retryState) {
+        long delay = baseDelay << Math.min(retryState.failureCount, 16);
+        retryState.failureCount++;
+        retryState.nextRetryTime = SystemClock.elapsedRealtime() + Math.min(delay, maxDelay);
+    }
+
+    private static class RetryState {
+        /**
+         * 连续失败的次数，包括搜索未命中和活体等待超时
+         */
+        private int failureCount;
+        private int missCount;
+        private int errorCount;
+        private long nextRetryTime;
+        private boolean unknown;
+    }
+
+    public static final class Builder {
+        private long baseDelay;
+        private long maxDelay;
+        private int maxAttempts;
+        private int maxFailures;
+
+        public Builder() {
+        }
+
+        /**
+         * 第一次失败后的等待时间，单位为毫秒，之后每次失败翻倍
+         */
+        public Builder baseDelay(long val) {
+            baseDelay = val;
+            return this;
+        }
+
+        /**
+         * 等待时间的上限，单位为毫秒
+         */
+        public Builder maxDelay(long val) {
+            maxDelay = val;
+            return this;
+        }
+
+        /**
+         * 搜索未命中的最大次数，达到后认定为未注册的人脸
+         */
+        public Builder maxAttempts(int val) {
+            maxAttempts = val;
+            return this;
+        }
+
+        /**
+         * 出错的最大次数，达到后认定为无法识别的人脸
+         */
+        public Builder maxFailures(int val) {
+            maxFailures = val;
+            return this;
+        }
+
+        public FeatureRetryPolicy build() {
+            return new FeatureRetryPolicy(this);
+        }
+    }
+}
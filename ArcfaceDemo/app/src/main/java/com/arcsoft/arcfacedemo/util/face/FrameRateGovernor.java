@@ -0,0 +1,210 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * 人脸追踪的帧率调节器，决定每一帧是否需要处理。
+ * <p>
+ * 有人脸时以{@link #activeFps}处理，连续{@link #idleDelay}毫秒没有人脸后降到{@link #idleFps}；
+ * 同时以指数加权移动平均统计各阶段的耗时，使处理耗时占用的时间比例不超过{@link #cpuBudget}，
+ * 设备发热降频导致耗时变长时自动降低帧率。
+ * <p>
+ * 处理的帧中跳过的阶段（如活体结果已缓存时的属性检测、按运动模型推算时的人脸检测）按耗时0计入，
+ * 移动平均反映的是每帧的平均耗时，阶段不再执行后其耗时逐渐衰减，不会一直压低帧率
+ */
+public class FrameRateGovernor {
+    private static final String TAG = "FrameRateGovernor";
+    /**
+     * 阶段：人脸检测
+     */
+    public static final int STAGE_DETECT = 0;
+    /**
+     * 阶段：活体等属性检测
+     */
+    public static final int STAGE_PROCESS = 1;
+    private static final int STAGE_COUNT = 2;
+    /**
+     * 耗时移动平均的平滑系数，越大对耗时变化越敏感
+     */
+    private static final float COST_SMOOTHING = 0.2f;
+    /**
+     * 输出统计日志的间隔
+     */
+    private static final long LOG_INTERVAL = 10000;
+
+    private int activeFps = 30;
+    private int idleFps = 5;
+    private float cpuBudget = 0.5f;
+    private long idleDelay = 2000;
+
+    /**
+     * 各阶段耗时的移动平均，单位毫秒
+     */
+    private float[] stageCosts = new float[STAGE_COUNT];
+    private long[] stageStartTimes = new long[STAGE_COUNT];
+    /**
+     * 当前帧中各阶段是否已执行
+     */
+    private boolean[] stageExecuted = new boolean[STAGE_COUNT];
+    private long lastProcessTime = 0;
+    private long lastFaceTime = 0;
+    private long lastLogTime = 0;
+    private int processedFrameCount = 0;
+    private int skippedFrameCount = 0;
+
+    private FrameRateGovernor(Builder builder) {
+        if (builder.activeFps > 0) {
+            activeFps = builder.activeFps;
+        }
+        if (builder.idleFps > 0) {
+            idleFps = builder.idleFps;
+        }
+        if (builder.cpuBudget > 0 && builder.cpuBudget <= 1) {
+            cpuBudget = builder.cpuBudget;
+        } else if (builder.cpuBudget != 0) {
+            Log.e(TAG, "cpuBudget must be in (0, 1],now using default value:" + cpuBudget);
+        }
+        if (builder.idleDelay > 0) {
+            idleDelay = builder.idleDelay;
+        }
+    }
+
+    /**
+     * 判断当前帧是否需要处理，返回true时需在处理结束后调用{@link #onFrameProcessed(int)}
+     *
+     * @return 是否处理当前帧
+     */
+    public boolean shouldProcess() {
+        long now = SystemClock.elapsedRealtime();
+        if (lastProcessTime != 0 && now - lastProcessTime < getProcessInterval(now)) {
+            skippedFrameCount++;
+            return false;
+        }
+        lastProcessTime = now;
+        return true;
+    }
+
+    /**
+     * 某阶段开始
+     *
+     * @param stage {@link #STAGE_DETECT}或{@link #STAGE_PROCESS}
+     */
+    public void onStageStart(int stage) {
+        stageStartTimes[stage] = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * 某阶段结束，更新该阶段的耗时
+     *
+     * @param stage {@link #STAGE_DETECT}或{@link #STAGE_PROCESS}
+     */
+    public void onStageEnd(int stage) {
+        long cost = SystemClock.elapsedRealtime() - stageStartTimes[stage];
+        stageCosts[stage] = stageCosts[stage] == 0 ? cost : stageCosts[stage] + COST_SMOOTHING * (cost - stageCosts[stage]);
+        stageExecuted[stage] = true;
+    }
+
+    /**
+     * 当前帧处理结束，本帧没有执行的阶段按耗时0更新移动平均
+     *
+     * @param faceNum 检测到的人脸数
+     */
+    public void onFrameProcessed(int faceNum) {
+        long now = SystemClock.elapsedRealtime();
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            if (!stageExecuted[stage]) {
+                stageCosts[stage] -= COST_SMOOTHING * stageCosts[stage];
+            }
+            stageExecuted[stage] = false;
+        }
+        if (faceNum > 0) {
+            lastFaceTime = now;
+        }
+        processedFrameCount++;
+        if (now - lastLogTime >= LOG_INTERVAL) {
+            Log.i(TAG, "onFrameProcessed: processed = " + processedFrameCount + " skipped = " + skippedFrameCount
+                    + " detectCost = " + stageCosts[STAGE_DETECT] + "ms processCost = " + stageCosts[STAGE_PROCESS]
+                    + "ms interval = " + getProcessInterval(now) + "ms");
+            lastLogTime = now;
+        }
+    }
+
+    /**
+     * @return 当前是否处于无人脸的低帧率状态
+     */
+    public boolean isIdle() {
+        return isIdle(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @param stage {@link #STAGE_DETECT}或{@link #STAGE_PROCESS}
+     * @return 该阶段耗时的移动平均，单位毫秒
+     */
+    public float getStageCost(int stage) {
+        return stageCosts[stage];
+    }
+
+    private boolean isIdle(long now) {
+        return now - lastFaceTime > idleDelay;
+    }
+
+    /**
+     * 两次处理之间的最小间隔：取目标帧率对应的间隔与CPU预算对应的间隔中较大的一个
+     */
+    private long getProcessInterval(long now) {
+        long fpsInterval = 1000 / (isIdle(now) ? idleFps : activeFps);
+        float totalCost = 0;
+        for (float stageCost : stageCosts) {
+            totalCost += stageCost;
+        }
+        long budgetInterval = (long) (totalCost / cpuBudget);
+        return Math.max(fpsInterval, budgetInterval);
+    }
+
+    public static final class Builder {
+        private int activeFps;
+        private int idleFps;
+        private float cpuBudget;
+        private long idleDelay;
+
+        public Builder() {
+        }
+
+        /**
+         * 有人脸时的最大处理帧率
+         */
+        public Builder activeFps(int val) {
+            activeFps = val;
+            return this;
+        }
+
+        /**
+         * 无人脸时的处理帧率
+         */
+        public Builder idleFps(int val) {
+            idleFps = val;
+            return this;
+        }
+
+        /**
+         * 处理耗时占用时间的最大比例，取值(0, 1]
+         */
+        public Builder cpuBudget(float val) {
+            cpuBudget = val;
+            return this;
+        }
+
+        /**
+         * 连续多长时间没有人脸后进入低帧率状态，单位毫秒
+         */
+        public Builder idleDelay(long val) {
+            idleDelay = val;
+            return this;
+        }
+
+        public FrameRateGovernor build() {
+            return new FrameRateGovernor(this);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import com.arcsoft.face.LivenessInfo;
+
+/**
+ * 按trackId缓存活体检测结果，只缓存{@link LivenessInfo#ALIVE}和{@link LivenessInfo#NOT_ALIVE}，
+ * 缓存有效期内的人脸不再进行活体检测。
+ * <p>
+ * 该类不是线程安全的，需在同一个线程中使用
+ */
+public class LivenessCache {
+    private static final int DEFAULT_CAPACITY = 10;
+
+    private long ttl;
+    private int[] trackIds = new int[DEFAULT_CAPACITY];
+    private LivenessInfo[] livenessInfos = new LivenessInfo[DEFAULT_CAPACITY];
+    private long[] expireTimes = new long[DEFAULT_CAPACITY];
+    private int size = 0;
+
+    /**
+     * @param ttl 缓存有效期，单位为毫秒
+     */
+    public LivenessCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param trackId trackId
+     * @param now     当前时间
+     * @return 缓存的活体结果，不存在或已过期时返回null
+     */
+    public LivenessInfo get(int trackId, long now) {
+        int index = indexOf(trackId);
+        if (index < 0) {
+            return null;
+        }
+        if (expireTimes[index] <= now) {
+            removeAt(index);
+            return null;
+        }
+        return livenessInfos[index];
+    }
+
+    /**
+     * 缓存活体结果，结果不确定时不缓存
+     *
+     * @param trackId      trackId
+     * @param livenessInfo 活体结果
+     * @param now          当前时间
+     */
+    public void put(int trackId, LivenessInfo livenessInfo, long now) {
+        if (livenessInfo == null
+                || (livenessInfo.getLiveness() != LivenessInfo.ALIVE && livenessInfo.getLiveness() != LivenessInfo.NOT_ALIVE)) {
+            return;
+        }
+        int index = indexOf(trackId);
+        if (index < 0) {
+            if (size == trackIds.length) {
+                grow();
+            }
+            index = size++;
+            trackIds[index] = trackId;
+        }
+        livenessInfos[index] = livenessInfo;
+        expireTimes[index] = now + ttl;
+    }
+
+    /**
+     * 清除已经离开的人脸
+     *
+     * @param faceTracker 最新的追踪结果
+     */
+    public void retainTracks(FaceTracker faceTracker) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (!faceTracker.containsTrackId(trackIds[i])) {
+                removeAt(i);
+            }
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            livenessInfos[i] = null;
+        }
+        size = 0;
+    }
+
+    private int indexOf(int trackId) {
+        for (int i = 0; i < size; i++) {
+            if (trackIds[i] == trackId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 用最后一个元素填补被删除的位置
+     */
+    private void removeAt(int index) {
+        size--;
+        trackIds[index] = trackIds[size];
+        livenessInfos[index] = livenessInfos[size];
+        expireTimes[index] = expireTimes[size];
+        livenessInfos[size] = null;
+    }
+
+    private void grow() {
+        int newCapacity = trackIds.length * 2;
+        int[] newTrackIds = new int[newCapacity];
+        System.arraycopy(trackIds, 0, newTrackIds, 0, size);
+        trackIds = newTrackIds;
+        LivenessInfo[] newLivenessInfos = new LivenessInfo[newCapacity];
+        System.arraycopy(livenessInfos, 0, newLivenessInfos, 0, size);
+        livenessInfos = newLivenessInfos;
+        long[] newExpireTimes = new long[newCapacity];
+        System.arraycopy(expireTimes, 0, newExpireTimes, 0, size);
+        expireTimes = newExpireTimes;
+    }
+}
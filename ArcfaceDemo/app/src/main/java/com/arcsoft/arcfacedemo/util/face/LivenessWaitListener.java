@@ -0,0 +1,15 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import com.arcsoft.face.FaceFeature;
+import com.arcsoft.face.LivenessInfo;
+
+public interface LivenessWaitListener {
+    /**
+     * 等待的活体结果到达或超时，在调用{@link LivenessWaiter}方法的线程中执行
+     *
+     * @param faceFeature 等待活体结果的特征数据
+     * @param requestId   请求码，一般为trackId
+     * @param liveness    活体结果，{@link LivenessInfo#ALIVE}或{@link LivenessInfo#NOT_ALIVE}；超时时为{@link LivenessInfo#UNKNOWN}
+     */
+    void onLivenessComplete(FaceFeature faceFeature, Integer requestId, int liveness);
+}
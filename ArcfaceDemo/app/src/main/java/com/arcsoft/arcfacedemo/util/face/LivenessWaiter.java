@@ -0,0 +1,171 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.arcsoft.face.FaceFeature;
+import com.arcsoft.face.LivenessInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按trackId等待活体结果：特征提取先于活体检测完成时，调用{@link #await}登记特征数据，
+ * 该trackId的活体结果通过{@link #onLivenessResult}到达时立即回调，超过等待时间仍无结果时按超时回调，不使用定时器轮询。
+ * <p>
+ * 各方法可在不同线程中调用，回调在调用方线程中、锁外执行
+ */
+public class LivenessWaiter {
+    /**
+     * 最长等待时间，单位为毫秒
+     */
+    private long timeout = 2000;
+    private LivenessWaitListener livenessWaitListener;
+    /**
+     * 每个trackId最近一次的活体结果
+     */
+    private final SparseIntArray livenessArray = new SparseIntArray();
+    /**
+     * 正在等待活体结果的特征数据
+     */
+    private final SparseArray<PendingFeature> pendingArray = new SparseArray<>();
+
+    private LivenessWaiter(Builder builder) {
+        if (builder.timeout > 0) {
+            timeout = builder.timeout;
+        }
+        livenessWaitListener = builder.livenessWaitListener;
+    }
+
+    /**
+     * 登记等待活体结果的特征数据，已有确定的活体结果时立即回调
+     *
+     * @param faceFeature 特征数据
+     * @param requestId   请求码，一般为trackId
+     */
+    public void await(FaceFeature faceFeature, Integer requestId) {
+        int liveness;
+        synchronized (this) {
+            liveness = livenessArray.get(requestId, LivenessInfo.UNKNOWN);
+            if (!isFinal(liveness)) {
+                pendingArray.put(requestId, new PendingFeature(faceFeature, System.currentTimeMillis() + timeout));
+                return;
+            }
+        }
+        notifyComplete(faceFeature, requestId, liveness);
+    }
+
+    /**
+     * 更新活体结果，有等待该trackId的特征数据且结果确定时回调
+     *
+     * @param trackId  trackId
+     * @param liveness 活体结果
+     */
+    public void onLivenessResult(int trackId, int liveness) {
+        PendingFeature pendingFeature = null;
+        synchronized (this) {
+            livenessArray.put(trackId, liveness);
+            if (isFinal(liveness)) {
+                pendingFeature = pendingArray.get(trackId);
+                pendingArray.remove(trackId);
+            }
+        }
+        if (pendingFeature != null) {
+            notifyComplete(pendingFeature.faceFeature, trackId, liveness);
+        }
+    }
+
+    /**
+     * 检查等待是否超时，超时的请求以{@link LivenessInfo#UNKNOWN}回调，建议每帧调用一次
+     */
+    public void checkTimeout() {
+        List<Integer> timeoutIds = null;
+        List<PendingFeature> timeoutFeatures = null;
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (int i = pendingArray.size() - 1; i >= 0; i--) {
+                PendingFeature pendingFeature = pendingArray.valueAt(i);
+                if (pendingFeature.deadline <= now) {
+                    if (timeoutIds == null) {
+                        timeoutIds = new ArrayList<>();
+                        timeoutFeatures = new ArrayList<>();
+                    }
+                    timeoutIds.add(pendingArray.keyAt(i));
+                    timeoutFeatures.add(pendingFeature);
+                    pendingArray.removeAt(i);
+                }
+            }
+        }
+        if (timeoutIds != null) {
+            for (int i = 0; i < timeoutIds.size(); i++) {
+                notifyComplete(timeoutFeatures.get(i).faceFeature, timeoutIds.get(i), LivenessInfo.UNKNOWN);
+            }
+        }
+    }
+
+    /**
+     * 删除已经离开的人脸，等待中的请求不再回调
+     *
+     * @param trackId trackId
+     */
+    public synchronized void remove(int trackId) {
+        livenessArray.delete(trackId);
+        pendingArray.remove(trackId);
+    }
+
+    public synchronized void clear() {
+        livenessArray.clear();
+        pendingArray.clear();
+    }
+
+    public void release() {
+        clear();
+        livenessWaitListener = null;
+    }
+
+    private static boolean isFinal(int liveness) {
+        return liveness == LivenessInfo.ALIVE || liveness == LivenessInfo.NOT_ALIVE;
+    }
+
+    private void notifyComplete(FaceFeature faceFeature, Integer requestId, int liveness) {
+        LivenessWaitListener listener = livenessWaitListener;
+        if (listener != null) {
+            listener.onLivenessComplete(faceFeature, requestId, liveness);
+        }
+    }
+
+    private static class PendingFeature {
+        private FaceFeature faceFeature;
+        private long deadline;
+
+        PendingFeature(FaceFeature faceFeature, long deadline) {
+            this.faceFeature = faceFeature;
+            this.deadline = deadline;
+        }
+    }
+
+    public static final class Builder {
+        private long timeout;
+        private LivenessWaitListener livenessWaitListener;
+
+        public Builder() {
+        }
+
+        /**
+         * 等待活体结果的最长时间，单位为毫秒
+         */
+        public Builder timeout(long val) {
+            timeout = val;
+            return this;
+        }
+
+        public Builder livenessWaitListener(LivenessWaitListener val) {
+            livenessWaitListener = val;
+            return this;
+        }
+
+        public LivenessWaiter build() {
+            return new LivenessWaiter(this);
+        }
+    }
+}
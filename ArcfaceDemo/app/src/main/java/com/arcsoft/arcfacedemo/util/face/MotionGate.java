@@ -0,0 +1,138 @@
+package com.arcsoft.arcfacedemo.util.face;
+
+import android.os.SystemClock;
+
+/**
+ * 人脸检测前的运动检测，对NV21的Y分量隔点采样，与上一次检测到运动时的采样结果比较，
+ * 变化的采样点比例低于阈值时认为画面静止。采样缓存在第一帧时分配，之后不再分配内存
+ */
+public class MotionGate {
+    /**
+     * 采样间隔，单位像素，横纵方向相同
+     */
+    private int sampleStep = 8;
+    /**
+     * 亮度差超过该值的采样点认为发生了变化
+     */
+    private int lumaThreshold = 20;
+    /**
+     * 变化的采样点比例超过该值时认为画面有运动
+     */
+    private float motionRatio = 0.01f;
+    /**
+     * 画面持续静止时，超过该时间也认为有运动，避免静止进入画面的人脸一直不被检测
+     */
+    private long maxStaticTime = 2000;
+
+    private byte[] referenceLuma;
+    private int sampleCols;
+    private int sampleRows;
+    private long lastMotionTime = 0;
+
+    private MotionGate(Builder builder) {
+        if (builder.sampleStep > 0) {
+            sampleStep = builder.sampleStep;
+        }
+        if (builder.lumaThreshold > 0) {
+            lumaThreshold = builder.lumaThreshold;
+        }
+        if (builder.motionRatio > 0) {
+            motionRatio = builder.motionRatio;
+        }
+        if (builder.maxStaticTime > 0) {
+            maxStaticTime = builder.maxStaticTime;
+        }
+    }
+
+    /**
+     * 判断当前帧相对于参考帧是否有运动，有运动时当前帧成为新的参考帧
+     *
+     * @param nv21   NV21数据
+     * @param width  宽度
+     * @param height 高度
+     * @return 是否有运动
+     */
+    public boolean hasMotion(byte[] nv21, int width, int height) {
+        int cols = width / sampleStep;
+        int rows = height / sampleStep;
+        long now = SystemClock.elapsedRealtime();
+        //第一帧或分辨率变化
+        if (referenceLuma == null || cols != sampleCols || rows != sampleRows) {
+            sampleCols = cols;
+            sampleRows = rows;
+            referenceLuma = new byte[cols * rows];
+            updateReference(nv21, width);
+            lastMotionTime = now;
+            return true;
+        }
+        int changedThreshold = (int) (cols * rows * motionRatio);
+        int changedCount = 0;
+        int sampleIndex = 0;
+        for (int row = 0; row < rows && changedCount <= changedThreshold; row++) {
+            int lineOffset = row * sampleStep * width;
+            for (int col = 0; col < cols; col++) {
+                int diff = (nv21[lineOffset + col * sampleStep] & 0xFF) - (referenceLuma[sampleIndex++] & 0xFF);
+                if (diff > lumaThreshold || diff < -lumaThreshold) {
+                    changedCount++;
+                }
+            }
+        }
+        if (changedCount > changedThreshold || now - lastMotionTime > maxStaticTime) {
+            updateReference(nv21, width);
+            lastMotionTime = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 清除参考帧，下一帧认为有运动
+     */
+    public void reset() {
+        referenceLuma = null;
+    }
+
+    private void updateReference(byte[] nv21, int width) {
+        int sampleIndex = 0;
+        for (int row = 0; row < sampleRows; row++) {
+            int lineOffset = row * sampleStep * width;
+            for (int col = 0; col < sampleCols; col++) {
+                referenceLuma[sampleIndex++] = nv21[lineOffset + col * sampleStep];
+            }
+        }
+    }
+
+    public static final class Builder {
+        private int sampleStep;
+        private int lumaThreshold;
+        private float motionRatio;
+        private long maxStaticTime;
+
+        public Builder() {
+        }
+
+        public Builder sampleStep(int val) {
+            sampleStep = val;
+            return this;
+        }
+
+        public Builder lumaThreshold(int val) {
+            lumaThreshold = val;
+            return this;
+        }
+
+        public Builder motionRatio(float val) {
+            motionRatio = val;
+            return this;
+        }
+
+        public Builder maxStaticTime(long val) {
+            maxStaticTime = val;
+            return this;
+        }
+
+        public MotionGate build() {
+            return new MotionGate(this);
+        }
+    }
+}
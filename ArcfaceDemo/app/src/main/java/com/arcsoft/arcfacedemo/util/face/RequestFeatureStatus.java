@@ -5,4 +5,8 @@ public class RequestFeatureStatus {
     public static final int SUCCEED = 1;
     public static final int FAILED = 2;
     public static final int NOT_ALIVE = 3;
+    /**
+     * 多次搜索均未在人脸库中找到，或多次出错（如人脸库为空），认定为无法识别的访客，不再重新搜索
+     */
+    public static final int UNKNOWN = 4;
 }
@@ -0,0 +1,150 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import com.arcsoft.face.FaceFeature;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class FeatureFileTest {
+    private File file;
+    private FeatureFile featureFile;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("feature", ".dat");
+        assertTrue(file.delete());
+        featureFile = new FeatureFile(file);
+    }
+
+    @After
+    public void tearDown() {
+        featureFile.clear();
+    }
+
+    private static byte[] feature(int value) {
+        byte[] feature = new byte[FaceFeature.FEATURE_SIZE];
+        feature[0] = (byte) value;
+        return feature;
+    }
+
+    private static int featureValue(FeatureMatrix matrix, int index) {
+        byte[] feature = new byte[FaceFeature.FEATURE_SIZE];
+        matrix.copyFeature(index, feature);
+        return feature[0];
+    }
+
+    @Test
+    public void loadReturnsAppendedRecords() {
+        assertTrue(featureFile.append("a", feature(1)));
+        assertTrue(featureFile.append("名字", feature(2)));
+
+        HeapFeatureMatrix matrix = featureFile.load();
+
+        assertEquals(2, matrix.size());
+        assertEquals("a", matrix.getName(0));
+        assertEquals(1, featureValue(matrix, 0));
+        assertEquals("名字", matrix.getName(1));
+        assertEquals(2, featureValue(matrix, 1));
+    }
+
+    @Test
+    public void removeWritesTombstones() {
+        featureFile.append("a", feature(1));
+        featureFile.append("b", feature(2));
+        featureFile.append("a", feature(3));
+
+        assertEquals(2, featureFile.remove("a"));
+        assertEquals(0, featureFile.remove("a"));
+
+        HeapFeatureMatrix matrix = featureFile.load();
+        assertEquals(1, matrix.size());
+        assertEquals("b", matrix.getName(0));
+        assertEquals(1, featureFile.countValid());
+        assertEquals(3, featureFile.getRecordCount());
+    }
+
+    @Test
+    public void removeWithLimitKeepsLaterRecords() {
+        featureFile.append("a", feature(1));
+        int recordCount = featureFile.getRecordCount();
+        featureFile.append("a", feature(2));
+
+        assertEquals(1, featureFile.remove("a", recordCount));
+
+        HeapFeatureMatrix matrix = featureFile.load();
+        assertEquals(1, matrix.size());
+        assertEquals(2, featureValue(matrix, 0));
+    }
+
+    @Test
+    public void removeFindsRecordsWrittenByAnotherInstance() {
+        featureFile.append("a", feature(1));
+        featureFile.append("b", feature(2));
+        featureFile.append("a", feature(3));
+
+        FeatureFile reopened = new FeatureFile(file);
+        assertEquals(2, reopened.remove("a"));
+        assertEquals(1, reopened.countValid());
+        reopened.append("a", feature(4));
+        assertEquals(1, reopened.remove("a"));
+        assertEquals(0, reopened.remove("c"));
+    }
+
+    @Test
+    public void removeAfterClearOnlySeesNewRecords() {
+        featureFile.append("a", feature(1));
+        featureFile.load();
+        assertTrue(featureFile.clear());
+        featureFile.append("a", feature(2));
+
+        assertEquals(1, featureFile.remove("a"));
+        assertEquals(0, featureFile.countValid());
+    }
+
+    @Test
+    public void isNameValidChecksEncodedLength() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < FeatureFile.NAME_SIZE / 3; i++) {
+            name.append('名');
+        }
+        assertTrue(FeatureFile.isNameValid(name.toString()));
+        name.append('名');
+        assertFalse(FeatureFile.isNameValid(name.toString()));
+        assertFalse(FeatureFile.isNameValid(null));
+    }
+
+    @Test
+    public void appendRejectsTooLongName() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i <= FeatureFile.NAME_SIZE; i++) {
+            name.append('x');
+        }
+
+        assertFalse(featureFile.append(name.toString(), feature(1)));
+        assertEquals(0, featureFile.getRecordCount());
+    }
+
+    @Test
+    public void appendDiscardsIncompleteRecord() throws IOException {
+        featureFile.append("a", feature(1));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() + FeatureFile.RECORD_SIZE / 2);
+        } finally {
+            raf.close();
+        }
+        featureFile.append("b", feature(2));
+
+        assertEquals(FeatureFile.HEADER_SIZE + 2 * FeatureFile.RECORD_SIZE, file.length());
+        HeapFeatureMatrix matrix = featureFile.load();
+        assertEquals(2, matrix.size());
+        assertEquals("b", matrix.getName(1));
+    }
+}
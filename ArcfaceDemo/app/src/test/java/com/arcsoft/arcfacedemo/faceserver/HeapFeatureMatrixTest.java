@@ -0,0 +1,96 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import com.arcsoft.face.FaceFeature;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HeapFeatureMatrixTest {
+
+    private static byte[] feature(int value) {
+        byte[] feature = new byte[FaceFeature.FEATURE_SIZE];
+        feature[0] = (byte) value;
+        feature[FaceFeature.FEATURE_SIZE - 1] = (byte) value;
+        return feature;
+    }
+
+    private static int featureValue(FeatureMatrix matrix, int index) {
+        byte[] feature = new byte[FaceFeature.FEATURE_SIZE];
+        matrix.copyFeature(index, feature);
+        assertEquals(feature[0], feature[FaceFeature.FEATURE_SIZE - 1]);
+        return feature[0];
+    }
+
+    @Test
+    public void storesFeaturesContiguouslyInOrder() {
+        HeapFeatureMatrix matrix = new HeapFeatureMatrix(1);
+        for (int i = 0; i < 10; i++) {
+            matrix = matrix.plus(feature(i), "n" + i);
+        }
+
+        assertEquals(10, matrix.size());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(matrix.isValid(i));
+            assertEquals("n" + i, matrix.getName(i));
+            assertEquals(i, featureValue(matrix, i));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidFeature() {
+        HeapFeatureMatrix matrix = new HeapFeatureMatrix();
+
+        assertSame(matrix, matrix.plus(null, "a"));
+        assertSame(matrix, matrix.plus(new byte[1], "a"));
+        assertEquals(0, matrix.size());
+    }
+
+    @Test
+    public void plusDoesNotChangeOriginalSnapshot() {
+        HeapFeatureMatrix original = new HeapFeatureMatrix(2).plus(feature(1), "a");
+        HeapFeatureMatrix appended = original.plus(feature(2), "b");
+
+        assertEquals(1, original.size());
+        assertEquals(2, appended.size());
+        assertEquals("a", appended.getName(0));
+        assertEquals("b", appended.getName(1));
+        assertEquals(2, featureValue(appended, 1));
+    }
+
+    @Test
+    public void plusOnOlderSnapshotDoesNotOverwriteNewerOne() {
+        HeapFeatureMatrix base = new HeapFeatureMatrix(4).plus(feature(1), "a");
+        HeapFeatureMatrix newer = base.plus(feature(2), "b");
+        HeapFeatureMatrix branch = base.plus(feature(3), "c");
+
+        assertEquals("b", newer.getName(1));
+        assertEquals(2, featureValue(newer, 1));
+        assertEquals("c", branch.getName(1));
+        assertEquals(3, featureValue(branch, 1));
+    }
+
+    @Test
+    public void minusRemovesAllMatchingNamesInNewSnapshot() {
+        HeapFeatureMatrix original = new HeapFeatureMatrix()
+                .plus(feature(1), "a")
+                .plus(feature(2), "b")
+                .plus(feature(3), "a");
+        HeapFeatureMatrix removed = original.minus("a");
+
+        assertEquals(1, removed.size());
+        assertEquals("b", removed.getName(0));
+        assertEquals(2, featureValue(removed, 0));
+        assertEquals(3, original.size());
+        assertEquals("a", original.getName(2));
+        assertEquals(3, featureValue(original, 2));
+    }
+
+    @Test
+    public void minusWithoutMatchReturnsSameSnapshot() {
+        HeapFeatureMatrix matrix = new HeapFeatureMatrix().plus(feature(1), "a");
+
+        assertSame(matrix, matrix.minus("b"));
+        assertSame(matrix, matrix.minus(null));
+    }
+}
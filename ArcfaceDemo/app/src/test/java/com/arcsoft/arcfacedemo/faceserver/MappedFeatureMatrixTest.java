@@ -0,0 +1,124 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import com.arcsoft.face.FaceFeature;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class MappedFeatureMatrixTest {
+    private File file;
+    private FeatureFile featureFile;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("feature", ".dat");
+        assertTrue(file.delete());
+        featureFile = new FeatureFile(file);
+    }
+
+    @After
+    public void tearDown() {
+        featureFile.clear();
+    }
+
+    private static byte[] feature(int value) {
+        byte[] feature = new byte[FaceFeature.FEATURE_SIZE];
+        feature[0] = (byte) value;
+        return feature;
+    }
+
+    private static int featureValue(FeatureMatrix matrix, int index) {
+        byte[] feature = new byte[FaceFeature.FEATURE_SIZE];
+        matrix.copyFeature(index, feature);
+        return feature[0];
+    }
+
+    @Test
+    public void mapMissingFileReturnsEmptyMatrix() throws IOException {
+        MappedFeatureMatrix matrix = MappedFeatureMatrix.map(file);
+
+        assertEquals(0, matrix.size());
+    }
+
+    @Test
+    public void mapReadsRecordsAndSkipsRemovedOnes() throws IOException {
+        featureFile.append("a", feature(1));
+        featureFile.append("名字", feature(2));
+        featureFile.append("c", feature(3));
+        featureFile.remove("c");
+
+        MappedFeatureMatrix matrix = MappedFeatureMatrix.map(file);
+
+        assertEquals(3, matrix.size());
+        assertTrue(matrix.isValid(0));
+        assertEquals("a", matrix.getName(0));
+        assertEquals(1, featureValue(matrix, 0));
+        assertTrue(matrix.isValid(1));
+        assertEquals("名字", matrix.getName(1));
+        assertEquals(2, featureValue(matrix, 1));
+        assertFalse(matrix.isValid(2));
+    }
+
+    @Test
+    public void extendMapsAppendedRecordsWithoutChangingOriginal() throws IOException {
+        featureFile.append("a", feature(1));
+        MappedFeatureMatrix original = MappedFeatureMatrix.map(file);
+        MappedFeatureMatrix matrix = original;
+        //超过最大分段数后重新映射整个文件
+        for (int i = 0; i < 20; i++) {
+            featureFile.append("n" + i, feature(i));
+            matrix = matrix.extend(file);
+        }
+
+        assertEquals(1, original.size());
+        assertEquals(21, matrix.size());
+        assertEquals("a", matrix.getName(0));
+        for (int i = 0; i < 20; i++) {
+            assertEquals("n" + i, matrix.getName(i + 1));
+            assertEquals(i, featureValue(matrix, i + 1));
+        }
+        assertSame(matrix, matrix.extend(file));
+    }
+
+    @Test
+    public void minusDoesNotChangePublishedSnapshots() throws IOException {
+        featureFile.append("a", feature(1));
+        featureFile.append("b", feature(2));
+        MappedFeatureMatrix original = MappedFeatureMatrix.map(file);
+        int recordCount = featureFile.getRecordCount();
+        featureFile.append("a", feature(3));
+
+        MappedFeatureMatrix extended = original.extend(file);
+        MappedFeatureMatrix removed = extended.minus(featureFile.findRecords("a", recordCount));
+        assertEquals(1, featureFile.remove("a", recordCount));
+
+        assertTrue(original.isValid(0));
+        assertTrue(extended.isValid(0));
+        assertFalse(removed.isValid(0));
+        assertTrue(removed.isValid(1));
+        assertTrue(removed.isValid(2));
+        assertEquals(3, featureValue(removed, 2));
+        //重新映射后依然沿用之前的删除记录
+        for (int i = 0; i < 20; i++) {
+            featureFile.append("n" + i, feature(i));
+            removed = removed.extend(file);
+        }
+        assertFalse(removed.isValid(0));
+        assertTrue(original.isValid(0));
+        assertFalse(MappedFeatureMatrix.map(file).isValid(0));
+    }
+
+    @Test
+    public void minusWithoutRecordsReturnsSameSnapshot() throws IOException {
+        featureFile.append("a", feature(1));
+        MappedFeatureMatrix matrix = MappedFeatureMatrix.map(file);
+
+        assertSame(matrix, matrix.minus(featureFile.findRecords("b", featureFile.getRecordCount())));
+    }
+}
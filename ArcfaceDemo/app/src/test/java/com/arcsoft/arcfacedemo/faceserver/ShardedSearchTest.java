@@ -0,0 +1,130 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class ShardedSearchTest {
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void partitionLimitsShardNumAndCoversAllRecords() {
+        assertArrayEquals(new int[]{0, 513, 1025}, ShardedSearch.partition(1025, 4, 512));
+        assertArrayEquals(new int[]{0, 1250, 2500, 3750, 5000}, ShardedSearch.partition(5000, 4, 512));
+        assertArrayEquals(new int[]{0, 100}, ShardedSearch.partition(100, 4, 512));
+    }
+
+    @Test
+    public void partitionDropsEmptyShards() {
+        //4个分片时分片大小向上取整为2，只需要3个分片
+        assertArrayEquals(new int[]{0, 2, 4, 5}, ShardedSearch.partition(5, 4, 1));
+    }
+
+    @Test
+    public void mergesAllShardResults() {
+        List<Callable<TopKCollector[]>> shardTasks = new ArrayList<>();
+        shardTasks.add(shard(0, 0.3f, 1, 0.9f));
+        shardTasks.add(shard(2, 0.8f, 3, 0.1f));
+
+        TopKCollector[] collectors = ShardedSearch.invokeAndMerge(executor, shardTasks, collectors());
+
+        assertNotNull(collectors);
+        collectors[0].sortDescending();
+        assertEquals(2, collectors[0].size());
+        assertEquals(1, collectors[0].getIndex(0));
+        assertEquals(2, collectors[0].getIndex(1));
+    }
+
+    @Test
+    public void failsWhenAnyShardReturnsNull() {
+        List<Callable<TopKCollector[]>> shardTasks = new ArrayList<>();
+        shardTasks.add(shard(0, 0.9f, 1, 0.8f));
+        shardTasks.add(new Callable<TopKCollector[]>() {
+            @Override
+            public TopKCollector[] call() {
+                return null;
+            }
+        });
+
+        assertNull(ShardedSearch.invokeAndMerge(executor, shardTasks, collectors()));
+    }
+
+    @Test
+    public void failsWhenAnyShardThrows() {
+        List<Callable<TopKCollector[]>> shardTasks = new ArrayList<>();
+        shardTasks.add(shard(0, 0.9f, 1, 0.8f));
+        shardTasks.add(new Callable<TopKCollector[]>() {
+            @Override
+            public TopKCollector[] call() {
+                throw new IllegalStateException("engine released");
+            }
+        });
+
+        assertNull(ShardedSearch.invokeAndMerge(executor, shardTasks, collectors()));
+    }
+
+    @Test
+    public void failsWhenExecutorIsShutDown() {
+        List<Callable<TopKCollector[]>> shardTasks = new ArrayList<>();
+        shardTasks.add(shard(0, 0.9f, 1, 0.8f));
+        executor.shutdown();
+
+        assertNull(ShardedSearch.invokeAndMerge(executor, shardTasks, collectors()));
+    }
+
+    @Test
+    public void failsAndKeepsInterruptWhenInterrupted() {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        List<Callable<TopKCollector[]>> shardTasks = new ArrayList<>();
+        shardTasks.add(new Callable<TopKCollector[]>() {
+            @Override
+            public TopKCollector[] call() throws InterruptedException {
+                blocked.await();
+                return collectors();
+            }
+        });
+        Thread.currentThread().interrupt();
+        try {
+            assertNull(ShardedSearch.invokeAndMerge(executor, shardTasks, collectors()));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+            blocked.countDown();
+        }
+    }
+
+    private static TopKCollector[] collectors() {
+        return new TopKCollector[]{new TopKCollector(2, 0, Float.MAX_VALUE)};
+    }
+
+    private static Callable<TopKCollector[]> shard(final int index1, final float score1, final int index2, final float score2) {
+        return new Callable<TopKCollector[]>() {
+            @Override
+            public TopKCollector[] call() {
+                TopKCollector[] collectors = collectors();
+                collectors[0].offer(index1, score1);
+                collectors[0].offer(index2, score2);
+                return collectors;
+            }
+        };
+    }
+}
@@ -0,0 +1,64 @@
+package com.arcsoft.arcfacedemo.faceserver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TopKCollectorTest {
+    private static final float DELTA = 1e-6f;
+
+    @Test
+    public void keepsHighestScoresInDescendingOrder() {
+        TopKCollector collector = new TopKCollector(3, 0, Float.MAX_VALUE);
+        float[] scores = {0.3f, 0.9f, 0.1f, 0.7f, 0.5f, 0.8f};
+        for (int i = 0; i < scores.length; i++) {
+            collector.offer(i, scores[i]);
+        }
+        collector.sortDescending();
+
+        assertEquals(3, collector.size());
+        assertEquals(1, collector.getIndex(0));
+        assertEquals(0.9f, collector.getScore(0), DELTA);
+        assertEquals(5, collector.getIndex(1));
+        assertEquals(0.8f, collector.getScore(1), DELTA);
+        assertEquals(3, collector.getIndex(2));
+        assertEquals(0.7f, collector.getScore(2), DELTA);
+    }
+
+    @Test
+    public void dropsScoresNotAboveMinScore() {
+        TopKCollector collector = new TopKCollector(3, 0.5f, Float.MAX_VALUE);
+        collector.offer(0, 0.5f);
+        collector.offer(1, 0.4f);
+        collector.offer(2, 0.6f);
+        collector.sortDescending();
+
+        assertEquals(1, collector.size());
+        assertEquals(2, collector.getIndex(0));
+    }
+
+    @Test
+    public void reportsAcceptScore() {
+        TopKCollector collector = new TopKCollector(1, 0, 0.8f);
+
+        assertFalse(collector.offer(0, 0.79f));
+        assertTrue(collector.offer(1, 0.8f));
+    }
+
+    @Test
+    public void mergeKeepsOverallTopK() {
+        TopKCollector first = new TopKCollector(2, 0, Float.MAX_VALUE);
+        first.offer(0, 0.2f);
+        first.offer(1, 0.6f);
+        TopKCollector second = new TopKCollector(2, 0, Float.MAX_VALUE);
+        second.offer(10, 0.9f);
+        second.offer(11, 0.4f);
+
+        first.merge(second);
+        first.sortDescending();
+
+        assertEquals(2, first.size());
+        assertEquals(10, first.getIndex(0));
+        assertEquals(1, first.getIndex(1));
+    }
+}
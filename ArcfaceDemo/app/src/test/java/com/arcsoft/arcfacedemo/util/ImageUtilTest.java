@@ -0,0 +1,52 @@
+package com.arcsoft.arcfacedemo.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImageUtilTest {
+
+    @Test
+    public void scaledSizeIsAligned() {
+        assertEquals(320, ImageUtil.getScaledNv21Width(640, 2));
+        assertEquals(212, ImageUtil.getScaledNv21Width(638, 3));
+        assertEquals(240, ImageUtil.getScaledNv21Height(480, 2));
+        assertEquals(158, ImageUtil.getScaledNv21Height(478, 3));
+    }
+
+    @Test
+    public void downscaleAveragesBlocks() {
+        int width = 8;
+        int height = 4;
+        byte[] src = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                src[y * width + x] = (byte) (y * width + x);
+            }
+        }
+        //VU交错存放，V为10、U为200
+        for (int i = width * height; i < src.length; i += 2) {
+            src[i] = 10;
+            src[i + 1] = (byte) 200;
+        }
+        int dstWidth = ImageUtil.getScaledNv21Width(width, 2);
+        int dstHeight = ImageUtil.getScaledNv21Height(height, 2);
+        byte[] dst = new byte[dstWidth * dstHeight * 3 / 2];
+
+        ImageUtil.downscaleNv21(src, width, height, 2, dst);
+
+        assertEquals(4, dstWidth);
+        assertEquals(2, dstHeight);
+        for (int y = 0; y < dstHeight; y++) {
+            for (int x = 0; x < dstWidth; x++) {
+                int topLeft = 2 * y * width + 2 * x;
+                int expected = (topLeft + (topLeft + 1) + (topLeft + width) + (topLeft + width + 1)) / 4;
+                assertEquals(expected, dst[y * dstWidth + x] & 0xFF);
+            }
+        }
+        for (int i = dstWidth * dstHeight; i < dst.length; i += 2) {
+            assertEquals(10, dst[i] & 0xFF);
+            assertEquals(200, dst[i + 1] & 0xFF);
+        }
+    }
+}